@@ -3,6 +3,7 @@ package com.mail.backend.controller;
 import com.mail.backend.dto.JWTResponse;
 import com.mail.backend.model.Users;
 import com.mail.backend.service.JWTService;
+import com.mail.backend.service.UserDirectoryService;
 import com.mail.backend.service.UserService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
@@ -17,6 +18,9 @@ public class AccountController {
     @Autowired
     private UserService userService;
 
+    @Autowired
+    private UserDirectoryService userDirectoryService;
+
     @Autowired
     private JWTService jwtService;
     @Autowired
@@ -27,6 +31,7 @@ public class AccountController {
         if(!(userService.existsByUsername(users.getUsername()))) {
             users.setEmail(users.getUsername()+"@jaryn.com");
             userService.save(users);
+            userDirectoryService.added(users.getUsername());
             try {
                 emailRepository.createDirectories(users.getUsername());
             } catch (IOException e) {
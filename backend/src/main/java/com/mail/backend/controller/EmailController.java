@@ -1,7 +1,10 @@
 package com.mail.backend.controller;
 
 import com.mail.backend.model.AttachmentMetadata;
+import com.mail.backend.model.BulkResult;
+import com.mail.backend.model.DeliveryResult;
 import com.mail.backend.model.Email;
+import com.mail.backend.model.EmailSummary;
 import com.mail.backend.service.AttachmentService;
 import com.mail.backend.service.EmailService;
 import lombok.extern.slf4j.Slf4j;
@@ -61,15 +64,13 @@ public class EmailController {
             // if not proceed normally
 
 
-            String messageId = emailService.sendEmail(username, email);
+            DeliveryResult result = emailService.sendEmail(username, email);
+            String messageId = result.getMessageId();
             if(email.isDraft()){
                 email.setDraft(false);
                 emailService.permanentlyDeleteEmail(username,email.getMessageId());
             }
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("messageId", messageId);
-            response.put("message", "Email sent successfully");
+            Map<String, Object> response = deliveryResponse(result);
 
             log.info("Email {} sent successfully", messageId);
             return new ResponseEntity<>(response, HttpStatus.CREATED);
@@ -115,12 +116,10 @@ public class EmailController {
             }
             // if not proceed normally
 
-            String messageId = emailService.forwardEmail(username, email,newRecipients);
+            DeliveryResult result = emailService.forwardEmail(username, email,newRecipients);
+            String messageId = result.getMessageId();
 
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("messageId", messageId);
-            response.put("message", "Email sent successfully");
+            Map<String, Object> response = deliveryResponse(result);
 
             log.info("Email {} sent successfully", messageId);
             return new ResponseEntity<>(response, HttpStatus.CREATED);
@@ -199,18 +198,26 @@ public class EmailController {
     /**
      * GET INBOX - Paginated
      * GET /api/email/inbox?page=1&limit=20
+     * GET /api/email/inbox?cursor=...&limit=20 - the page after the one that returned this nextCursor
      */
     @GetMapping("/inbox")
     public ResponseEntity<?> getInbox(
             @RequestParam(defaultValue = "date") String sortBy,
             @RequestParam(defaultValue = "1") int page,
             @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(required = false) String cursor,
             Authentication authentication) {
         try {
             String username = getCurrentUsername(authentication);
-            Map<String, Object> emails = emailService.getInboxEmails(username, page, limit, sortBy);
+            Map<String, Object> emails = emailService.getInboxEmails(username, page, limit, sortBy, cursor);
 
             return new ResponseEntity<>(emails, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected inbox request: {}", e.getMessage());
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", e.getMessage());
+            return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
         } catch (IOException e) {
             log.error("Failed to get inbox: {}", e.getMessage());
             Map<String, Object> error = new HashMap<>();
@@ -223,6 +230,7 @@ public class EmailController {
     /**
      * GET EMAILS FROM FOLDER
      * GET /api/email/folder/{folder}?page=1&limit=20
+     * GET /api/email/folder/{folder}?cursor=...&limit=20
      */
     @GetMapping("/folder/{folder}")
     public ResponseEntity<?> getFolder(
@@ -230,12 +238,19 @@ public class EmailController {
             @RequestParam(defaultValue = "date") String sortBy,
             @RequestParam(defaultValue = "1") int page,
             @RequestParam(defaultValue = "20") int limit,
+            @RequestParam(required = false) String cursor,
             Authentication authentication) {
         try {
             String username = getCurrentUsername(authentication);
-            Map<String, Object> emails = emailService.getEmailsInFolder(username, folder, page, limit, sortBy);
+            Map<String, Object> emails = emailService.getEmailsInFolder(username, folder, page, limit, sortBy, cursor);
 
             return new ResponseEntity<>(emails, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected request for folder {}: {}", folder, e.getMessage());
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", e.getMessage());
+            return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
         } catch (IOException e) {
             log.error("Failed to get folder {}: {}", folder, e.getMessage());
             Map<String, Object> error = new HashMap<>();
@@ -272,6 +287,8 @@ public class EmailController {
      * SEARCH EMAILS
      * GET /api/email/search?keyword=test&searchIn=all
      * searchIn: "subject", "body", "sender", "all"
+     * explain=true adds the query plan that was chosen, with its estimates
+     * limit and/or cursor return one page of results with a nextCursor; without them every result is returned
      */
     @GetMapping("/search")
     public ResponseEntity<?> searchEmails(
@@ -286,22 +303,46 @@ public class EmailController {
             @RequestParam(required = false) String startDate,
             @RequestParam(required = false) String endDate,
             @RequestParam(defaultValue = "date") String sortBy,
+            @RequestParam(defaultValue = "false") boolean explain,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String cursor,
             Authentication authentication) {
         try {
             String username = getCurrentUsername(authentication);
             log.info("Search Params -> Start: {}, End: {}", startDate, endDate);
 
-            List<Email> results = emailService.searchEmails(
-                    username, sender, receiver, subject, body, folder,
-                    keyword, priority, hasAttachment,startDate, endDate, sortBy
-            );
-
             Map<String, Object> response = new HashMap<>();
             response.put("success", true);
-            response.put("results", results);
-            response.put("totalResults", results.size());
+            if (limit != null || cursor != null) {
+                Map<String, Object> page = emailService.searchEmailsPage(
+                        username, sender, receiver, subject, body, folder,
+                        keyword, priority, hasAttachment, startDate, endDate, sortBy,
+                        limit != null ? limit : 20, cursor);
+                List<?> results = (List<?>) page.get("content");
+                response.put("results", results);
+                response.put("totalResults", results.size());
+                response.put("nextCursor", page.get("nextCursor"));
+            } else {
+                List<EmailSummary> results = emailService.searchEmails(
+                        username, sender, receiver, subject, body, folder,
+                        keyword, priority, hasAttachment,startDate, endDate, sortBy
+                );
+                response.put("results", results);
+                response.put("totalResults", results.size());
+            }
+            if (explain) {
+                response.put("plan", emailService.explainSearch(
+                        username, sender, receiver, subject, body, folder,
+                        keyword, priority, hasAttachment, startDate, endDate));
+            }
 
             return new ResponseEntity<>(response, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected search: {}", e.getMessage());
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", e.getMessage());
+            return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
         } catch (IOException e) {
             log.error("Search failed: {}", e.getMessage());
             return new ResponseEntity<>(HttpStatus.INTERNAL_SERVER_ERROR);
@@ -312,19 +353,27 @@ public class EmailController {
     /**
      * GET STARRED EMAILS
      * GET /api/email/starred
+     * GET /api/email/starred?cursor=...&limit=20
      */
     @GetMapping("/starred")
     public ResponseEntity<?> getStarredEmails(
             @RequestParam(defaultValue = "1") int page,
             @RequestParam(defaultValue = "20") int limit,
             @RequestParam(defaultValue = "date") String sortBy,
+            @RequestParam(required = false) String cursor,
             Authentication authentication) {
         try {
             String username = getCurrentUsername(authentication);
             
-            Map<String, Object> emails = emailService.getStarredEmailsPaginated(username, page, limit, sortBy);
+            Map<String, Object> emails = emailService.getStarredEmailsPaginated(username, page, limit, sortBy, cursor);
 
             return new ResponseEntity<>(emails, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            log.warn("Rejected starred emails request: {}", e.getMessage());
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", e.getMessage());
+            return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
         } catch (IOException e) {
             log.error("Failed to get starred emails: {}", e.getMessage());
             Map<String, Object> error = new HashMap<>();
@@ -540,20 +589,8 @@ public class EmailController {
     @PostMapping("/permanent-delete")
     public ResponseEntity<?> permanentlyDeleteEmails(@RequestBody List<String> messageIds, Authentication authentication) {
         String username = getCurrentUsername(authentication);
-
-        for (String messageId : messageIds) {
-            try {
-                emailService.permanentlyDeleteEmail(username, messageId);
-            } catch (IOException e) {
-                log.error("Failed to permanently delete email {}", messageId, e);
-            }
-        }
-
-        Map<String, Object> response = new HashMap<>();
-        response.put("success", true);
-        response.put("message", "Permanently deleted " + messageIds.size() + " emails");
-
-        return new ResponseEntity<>(response, HttpStatus.OK);
+        BulkResult result = emailService.bulkPermanentlyDelete(username, messageIds);
+        return bulkResponse(result, "Permanently deleted " + result.getSucceeded() + " emails");
     }
 
     /**
@@ -566,22 +603,9 @@ public class EmailController {
             @RequestBody List<String> messageIds,
             @RequestParam String toFolder,
             Authentication authentication) {
-        try {
-            String username = getCurrentUsername(authentication);
-            emailService.bulkMove(username, messageIds, toFolder);
-
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("message", "Moved " + messageIds.size() + " emails to " + toFolder);
-
-            return new ResponseEntity<>(response, HttpStatus.OK);
-        } catch (IOException e) {
-            log.error("Bulk move failed: {}", e.getMessage());
-            Map<String, Object> error = new HashMap<>();
-            error.put("success", false);
-            error.put("error", "Bulk move failed");
-            return new ResponseEntity<>(error, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+        String username = getCurrentUsername(authentication);
+        BulkResult result = emailService.bulkMove(username, messageIds, toFolder);
+        return bulkResponse(result, "Moved " + result.getSucceeded() + " emails to " + toFolder);
     }
 
     /**
@@ -591,22 +615,9 @@ public class EmailController {
      */
     @PostMapping("/bulk-delete")
     public ResponseEntity<?> bulkDelete(@RequestBody List<String> messageIds, Authentication authentication) {
-        try {
-            String username = getCurrentUsername(authentication);
-            emailService.bulkDelete(username, messageIds);
-
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("message", "Deleted " + messageIds.size() + " emails");
-
-            return new ResponseEntity<>(response, HttpStatus.OK);
-        } catch (IOException e) {
-            log.error("Bulk delete failed: {}", e.getMessage());
-            Map<String, Object> error = new HashMap<>();
-            error.put("success", false);
-            error.put("error", "Bulk delete failed");
-            return new ResponseEntity<>(error, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+        String username = getCurrentUsername(authentication);
+        BulkResult result = emailService.bulkDelete(username, messageIds);
+        return bulkResponse(result, "Deleted " + result.getSucceeded() + " emails");
     }
 
     /**
@@ -619,21 +630,81 @@ public class EmailController {
     public ResponseEntity<?> bulkRestore(
             @RequestBody List<String> messageIds,
             Authentication authentication) {
-        try {
-            String username = getCurrentUsername(authentication);
-            emailService.bulkRestoreFromTrash(username, messageIds);
+        String username = getCurrentUsername(authentication);
+        BulkResult result = emailService.bulkRestoreFromTrash(username, messageIds);
+        return bulkResponse(result, "Restored " + result.getSucceeded() + " emails from trash");
+    }
 
-            Map<String, Object> response = new HashMap<>();
-            response.put("success", true);
-            response.put("message", "Restored " + messageIds.size() + " emails from trash");
+    /**
+     * BULK MARK AS READ / UNREAD, STAR / UNSTAR
+     * POST /api/email/bulk-read
+     * POST /api/email/bulk-unread
+     * POST /api/email/bulk-star
+     * POST /api/email/bulk-unstar
+     * Body: ["messageId1", "messageId2", ...]
+     */
+    @PostMapping("/bulk-read")
+    public ResponseEntity<?> bulkMarkAsRead(@RequestBody List<String> messageIds, Authentication authentication) {
+        BulkResult result = emailService.bulkSetFlags(getCurrentUsername(authentication), messageIds, true, null);
+        return bulkResponse(result, "Marked " + result.getSucceeded() + " emails as read");
+    }
 
-            return new ResponseEntity<>(response, HttpStatus.OK);
-        } catch (IOException e) {
-            log.error("Bulk restore failed: {}", e.getMessage());
-            Map<String, Object> error = new HashMap<>();
-            error.put("success", false);
-            error.put("error", "Bulk restore failed");
-            return new ResponseEntity<>(error, HttpStatus.INTERNAL_SERVER_ERROR);
-        }
+    @PostMapping("/bulk-unread")
+    public ResponseEntity<?> bulkMarkAsUnread(@RequestBody List<String> messageIds, Authentication authentication) {
+        BulkResult result = emailService.bulkSetFlags(getCurrentUsername(authentication), messageIds, false, null);
+        return bulkResponse(result, "Marked " + result.getSucceeded() + " emails as unread");
+    }
+
+    @PostMapping("/bulk-star")
+    public ResponseEntity<?> bulkStar(@RequestBody List<String> messageIds, Authentication authentication) {
+        BulkResult result = emailService.bulkSetFlags(getCurrentUsername(authentication), messageIds, null, true);
+        return bulkResponse(result, "Starred " + result.getSucceeded() + " emails");
+    }
+
+    @PostMapping("/bulk-unstar")
+    public ResponseEntity<?> bulkUnstar(@RequestBody List<String> messageIds, Authentication authentication) {
+        BulkResult result = emailService.bulkSetFlags(getCurrentUsername(authentication), messageIds, null, false);
+        return bulkResponse(result, "Unstarred " + result.getSucceeded() + " emails");
+    }
+
+    /**
+     * MARK ENTIRE FOLDER AS READ
+     * POST /api/email/folder/{folder}/read
+     * Only the counts are returned - a folder can hold thousands of emails
+     */
+    @PostMapping("/folder/{folder}/read")
+    public ResponseEntity<?> markFolderRead(@PathVariable String folder, Authentication authentication) {
+        BulkResult result = emailService.markFolderRead(getCurrentUsername(authentication), folder);
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", result.getFailed() == 0);
+        response.put("message", "Marked " + result.getSucceeded() + " emails in " + folder + " as read");
+        response.put("succeeded", result.getSucceeded());
+        response.put("failed", result.getFailed());
+        return new ResponseEntity<>(response, HttpStatus.OK);
+    }
+
+    // Send responses carry a status per recipient; the email counts as sent once any recipient is queued
+    private Map<String, Object> deliveryResponse(DeliveryResult result) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", true);
+        response.put("messageId", result.getMessageId());
+        response.put("message", result.getFailed() == 0
+                ? "Email sent successfully"
+                : "Email sent to " + result.getQueued() + " of " + result.getRecipients().size() + " recipients");
+        response.put("queued", result.getQueued());
+        response.put("failed", result.getFailed());
+        response.put("recipients", result.getRecipients());
+        return response;
+    }
+
+    // Bulk responses carry a result per messageId; success is false if any of them failed
+    private ResponseEntity<?> bulkResponse(BulkResult result, String message) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("success", result.getFailed() == 0);
+        response.put("message", message);
+        response.put("succeeded", result.getSucceeded());
+        response.put("failed", result.getFailed());
+        response.put("results", result.getResults());
+        return new ResponseEntity<>(response, HttpStatus.OK);
     }
-}
\ No newline at end of file
+}
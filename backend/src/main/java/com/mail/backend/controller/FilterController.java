@@ -1,5 +1,7 @@
 package com.mail.backend.controller;
 import com.mail.backend.model.Filter;
+import com.mail.backend.model.FilterJob;
+import com.mail.backend.service.FilterJobService;
 import com.mail.backend.service.FilterService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,6 +22,8 @@ import java.util.Map;
 public class FilterController {
     @Autowired
     private FilterService filterService;
+    @Autowired
+    private FilterJobService filterJobService;
 
     private String getCurrentUserName(Authentication authentication) {
         return authentication.getName();
@@ -114,4 +118,64 @@ public class FilterController {
         }
     }
 
+    // Runs one filter (or all of them) over a folder (or the whole mailbox) in the background; poll the job for progress
+    @PostMapping("/apply")
+    public ResponseEntity<?> applyFilters(@RequestParam(required = false) String filterId,
+                                          @RequestParam(required = false) String folder,
+                                          @RequestParam(defaultValue = "false") boolean dryRun,
+                                          Authentication authentication) {
+        try {
+            String username = getCurrentUserName(authentication);
+            FilterJob job = filterJobService.start(username, filterId, folder, dryRun);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("job", job);
+            return new ResponseEntity<>(response, HttpStatus.ACCEPTED);
+        } catch (IllegalArgumentException e) {
+            log.error("Invalid filter job: {}", e.getMessage());
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", e.getMessage());
+            return new ResponseEntity<>(error, HttpStatus.BAD_REQUEST);
+        } catch (IOException e) {
+            log.error("Failed to start filter job: {}", e.getMessage());
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", "Failed to start filter job");
+            return new ResponseEntity<>(error, HttpStatus.INTERNAL_SERVER_ERROR);
+        }
+    }
+
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<?> getFilterJob(@PathVariable String jobId, Authentication authentication) {
+        try {
+            FilterJob job = filterJobService.getJob(getCurrentUserName(authentication), jobId);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("job", job);
+            return new ResponseEntity<>(response, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", e.getMessage());
+            return new ResponseEntity<>(error, HttpStatus.NOT_FOUND);
+        }
+    }
+
+    @DeleteMapping("/jobs/{jobId}")
+    public ResponseEntity<?> cancelFilterJob(@PathVariable String jobId, Authentication authentication) {
+        try {
+            FilterJob job = filterJobService.cancel(getCurrentUserName(authentication), jobId);
+            Map<String, Object> response = new HashMap<>();
+            response.put("success", true);
+            response.put("job", job);
+            return new ResponseEntity<>(response, HttpStatus.OK);
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> error = new HashMap<>();
+            error.put("success", false);
+            error.put("error", e.getMessage());
+            return new ResponseEntity<>(error, HttpStatus.NOT_FOUND);
+        }
+    }
+
 }
@@ -1,21 +1,52 @@
 package com.mail.backend.dps.SearchFilter;
 
-import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.BitSet;
 
 public class AndFilter implements SearchFilter {
     private SearchFilter filter1;
     private SearchFilter filter2;
 
     public AndFilter(SearchFilter filter1, SearchFilter filter2) {
-        System.out.println("Building AndFilter with: " + filter2.getClass().getSimpleName());
-        this.filter1 = filter1;
-        this.filter2 = filter2;
+        // Evaluate the cheaper side first so it can short-circuit the other
+        if (filter2.cost() < filter1.cost()) {
+            this.filter1 = filter2;
+            this.filter2 = filter1;
+        } else {
+            this.filter1 = filter1;
+            this.filter2 = filter2;
+        }
     }
-    public List<Email> meetCriteria(List<Email> emails) {
-        List<Email> firstCriteria = filter1.meetCriteria(emails);
-        return filter2.meetCriteria(firstCriteria);
+
+    @Override
+    public boolean matches(MailItem item) {
+        return filter1.matches(item) && filter2.matches(item);
+    }
+
+    @Override
+    public int cost() {
+        return filter1.cost() + filter2.cost();
+    }
+
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        return filter1.selectivity(stats) * filter2.selectivity(stats);
+    }
+
+    @Override
+    public BitSet bitmap(FlagBitmaps bitmaps) {
+        BitSet bits1 = filter1.bitmap(bitmaps);
+        BitSet bits2 = bits1 == null ? null : filter2.bitmap(bitmaps);
+        if (bits2 == null) {
+            return null;
+        }
+        bits1.and(bits2);
+        return bits1;
+    }
+
+    @Override
+    public String describe() {
+        return "(" + filter1.describe() + " AND " + filter2.describe() + ")";
     }
 }
@@ -1,9 +1,8 @@
 package com.mail.backend.dps.SearchFilter;
 
-import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.BitSet;
 
 public class AttachmentFilter implements SearchFilter {
     private boolean hasAttachment;
@@ -13,12 +12,33 @@ public class AttachmentFilter implements SearchFilter {
     }
 
     @Override
-    public List<Email> meetCriteria(List<Email> emails) {
-        return emails.stream()
-                .filter(email -> {
-                    boolean emailHasAttachments = email.getAttachments() != null && !email.getAttachments().isEmpty();
-                    return hasAttachment ? emailHasAttachments : !emailHasAttachments;
-                })
-                .collect(Collectors.toList());
+    public boolean matches(MailItem item) {
+        return item.hasAttachments() == hasAttachment;
+    }
+
+    @Override
+    public int cost() {
+        return FLAG_COST;
+    }
+
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        int count = stats.countWithAttachments();
+        return SearchFilter.fraction(hasAttachment ? count : stats.total() - count, stats);
+    }
+
+    @Override
+    public BitSet bitmap(FlagBitmaps bitmaps) {
+        if (hasAttachment) {
+            return bitmaps.attachmentBits();
+        }
+        BitSet bits = bitmaps.allBits();
+        bits.andNot(bitmaps.attachmentBits());
+        return bits;
+    }
+
+    @Override
+    public String describe() {
+        return "hasAttachments = " + hasAttachment;
     }
 }
@@ -1,30 +1,43 @@
 package com.mail.backend.dps.SearchFilter;
 
 import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 import com.mail.backend.service.HtmlHelper;
 
-import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
-
 public class BodyFilter implements SearchFilter {
     private String keyword;
+    private String lowerKeyword;
+
     public BodyFilter(String keyword) {
         this.keyword = keyword;
+        this.lowerKeyword = keyword == null ? null : keyword.toLowerCase();
     }
 
     @Override
-    public List<Email> meetCriteria(List<Email> emails) {
+    public boolean matches(MailItem item) {
         if (keyword == null || keyword.trim().isEmpty()) {
-            return emails;
+            return true;
+        }
+        // Only a full email carries its body
+        if (!(item instanceof Email email) || email.getBody() == null) {
+            return false;
         }
-        String lowerKeyword = keyword.toLowerCase();
-        Stream<Email> emailStream = emails.stream();
-        Stream<Email> filteredEmailStream = emailStream.filter(email->{
-            String plainBody = HtmlHelper.extractPlainText(email.getBody());
-            return plainBody.toLowerCase().contains(lowerKeyword);
-        });
+        String plainBody = HtmlHelper.extractPlainText(email.getBody());
+        return plainBody.toLowerCase().contains(lowerKeyword);
+    }
 
-        return filteredEmailStream.collect(Collectors.toList());
+    @Override
+    public int cost() {
+        return CONTENT_COST;
+    }
+
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        return TEXT_SELECTIVITY;
+    }
+
+    @Override
+    public String describe() {
+        return "body contains '" + keyword + "'";
     }
 }
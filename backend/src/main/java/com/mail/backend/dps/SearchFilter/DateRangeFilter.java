@@ -1,12 +1,12 @@
 package com.mail.backend.dps.SearchFilter;
 
-import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
+
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.BitSet;
 
 public class DateRangeFilter implements SearchFilter {
     private LocalDateTime startDateTime;
@@ -29,24 +29,31 @@ public class DateRangeFilter implements SearchFilter {
     }
 
     @Override
-    public List<Email> meetCriteria(List<Email> emails) {
-        System.out.println("--- DateRangeFilter Debug ---");
-        System.out.println("Range: " + startDateTime + " TO " + endDateTime);
+    public boolean matches(MailItem item) {
+        LocalDateTime timestamp = item.getTimestamp();
+        if (timestamp == null) {
+            return false;
+        }
+        return !timestamp.isBefore(startDateTime) && !timestamp.isAfter(endDateTime);
+    }
 
-        return emails.stream()
-                .filter(email -> {
-                    if (email.getTimestamp() == null) {
-                        System.out.println("FAIL: Email " + email.getMessageId() + " has NULL timestamp");
-                        return false;
-                    }
+    @Override
+    public int cost() {
+        return DATE_COST;
+    }
 
-                    boolean isAfterStart = email.getTimestamp().isAfter(startDateTime) || email.getTimestamp().equals(startDateTime);
-                    boolean isBeforeEnd = email.getTimestamp().isBefore(endDateTime) || email.getTimestamp().equals(endDateTime);
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        return SearchFilter.fraction(stats.countBetween(startDateTime, endDateTime), stats);
+    }
 
-                    System.out.println("Checking " + email.getTimestamp() + " -> " + (isAfterStart && isBeforeEnd));
+    @Override
+    public BitSet bitmap(FlagBitmaps bitmaps) {
+        return bitmaps.timeRangeBits(startDateTime, endDateTime);
+    }
 
-                    return isAfterStart && isBeforeEnd;
-                })
-                .collect(Collectors.toList());
+    @Override
+    public String describe() {
+        return "timestamp between " + startDateTime + " and " + endDateTime;
     }
-}
\ No newline at end of file
+}
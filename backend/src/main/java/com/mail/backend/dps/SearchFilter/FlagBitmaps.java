@@ -0,0 +1,24 @@
+package com.mail.backend.dps.SearchFilter;
+
+import java.time.LocalDateTime;
+import java.util.BitSet;
+
+// Bitmaps kept by a mailbox index over dense message ordinals, one per flag, priority and folder,
+// plus bitmaps of timestamp ranges built from its time-ordered index.
+// Every call returns a fresh copy that the caller may combine in place.
+public interface FlagBitmaps {
+    BitSet allBits();
+
+    // Folder names compare ignoring case, as FolderFilter does
+    BitSet folderBits(String folder);
+
+    BitSet readBits();
+
+    BitSet starredBits();
+
+    BitSet attachmentBits();
+
+    BitSet priorityBits(int priority);
+
+    BitSet timeRangeBits(LocalDateTime start, LocalDateTime end);
+}
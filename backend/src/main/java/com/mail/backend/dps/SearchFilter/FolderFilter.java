@@ -1,9 +1,8 @@
 package com.mail.backend.dps.SearchFilter;
 
-import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.BitSet;
 
 public class FolderFilter implements SearchFilter {
     private String folderName;
@@ -12,12 +11,36 @@ public class FolderFilter implements SearchFilter {
     }
 
     @Override
-    public List<Email> meetCriteria(List<Email> emails) {
+    public boolean matches(MailItem item) {
         if (folderName == null || folderName.isEmpty() || folderName.equalsIgnoreCase("all")) {
-            return emails;
+            return true;
         }
-        return emails.stream()
-                .filter(email -> email.getFolder().equalsIgnoreCase(folderName))
-                .collect(Collectors.toList());
+        return folderName.equalsIgnoreCase(item.getFolder());
+    }
+
+    @Override
+    public int cost() {
+        return FLAG_COST;
+    }
+
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        if (folderName == null || folderName.isEmpty() || folderName.equalsIgnoreCase("all")) {
+            return 1.0;
+        }
+        return SearchFilter.fraction(stats.countInFolder(folderName.toLowerCase()), stats);
+    }
+
+    @Override
+    public BitSet bitmap(FlagBitmaps bitmaps) {
+        if (folderName == null || folderName.isEmpty() || folderName.equalsIgnoreCase("all")) {
+            return bitmaps.allBits();
+        }
+        return bitmaps.folderBits(folderName);
+    }
+
+    @Override
+    public String describe() {
+        return "folder = " + folderName;
     }
 }
@@ -0,0 +1,20 @@
+package com.mail.backend.dps.SearchFilter;
+
+import java.time.LocalDateTime;
+
+// Counts kept by a mailbox index, used to estimate how many messages a filter lets through
+public interface IndexStatistics {
+    int total();
+
+    int countInFolder(String folder);
+
+    int countRead();
+
+    int countStarred();
+
+    int countWithAttachments();
+
+    int countWithPriority(int priority);
+
+    int countBetween(LocalDateTime start, LocalDateTime end);
+}
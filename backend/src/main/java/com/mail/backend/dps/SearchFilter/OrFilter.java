@@ -1,31 +1,54 @@
 package com.mail.backend.dps.SearchFilter;
 
-import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.BitSet;
 
 public class OrFilter implements SearchFilter {
     private SearchFilter criteria1;
     private SearchFilter criteria2;
 
     public OrFilter(SearchFilter criteria1, SearchFilter criteria2) {
-        this.criteria1 = criteria1;
-        this.criteria2 = criteria2;
+        // Evaluate the cheaper side first so a match there skips the other
+        if (criteria2.cost() < criteria1.cost()) {
+            this.criteria1 = criteria2;
+            this.criteria2 = criteria1;
+        } else {
+            this.criteria1 = criteria1;
+            this.criteria2 = criteria2;
+        }
+    }
+
+    @Override
+    public boolean matches(MailItem item) {
+        return criteria1.matches(item) || criteria2.matches(item);
+    }
+
+    @Override
+    public int cost() {
+        return criteria1.cost() + criteria2.cost();
+    }
+
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        double s1 = criteria1.selectivity(stats);
+        double s2 = criteria2.selectivity(stats);
+        return s1 + s2 - s1 * s2;
     }
 
     @Override
-    public List<Email> meetCriteria(List<Email> emails) {
-        List<Email> firstCriteriaItems = criteria1.meetCriteria(emails);
-        List<Email> secondCriteriaItems = criteria2.meetCriteria(emails);
-        //combine both ( union )
-        for (Email email : secondCriteriaItems) {
-            if (!firstCriteriaItems.contains(email)) {
-                firstCriteriaItems.add(email);
-
-            }
+    public BitSet bitmap(FlagBitmaps bitmaps) {
+        BitSet bits1 = criteria1.bitmap(bitmaps);
+        BitSet bits2 = bits1 == null ? null : criteria2.bitmap(bitmaps);
+        if (bits2 == null) {
+            return null;
         }
+        bits1.or(bits2);
+        return bits1;
+    }
 
-        return firstCriteriaItems;
+    @Override
+    public String describe() {
+        return "(" + criteria1.describe() + " OR " + criteria2.describe() + ")";
     }
 }
@@ -1,10 +1,8 @@
 package com.mail.backend.dps.SearchFilter;
 
-import com.mail.backend.dps.strategy.SortStrategy;
-import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.BitSet;
 
 public class PriorityFilter implements SearchFilter {
     private Integer priority;
@@ -14,9 +12,27 @@ public class PriorityFilter implements SearchFilter {
     }
 
     @Override
-    public List<Email> meetCriteria(List<Email> emails) {
-        return emails.stream()
-                .filter(email -> email.getPriority() != null && email.getPriority().equals(priority))
-                .collect(Collectors.toList());
+    public boolean matches(MailItem item) {
+        return item.getPriority() != null && item.getPriority().equals(priority);
+    }
+
+    @Override
+    public int cost() {
+        return FLAG_COST;
+    }
+
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        return priority == null ? 0.0 : SearchFilter.fraction(stats.countWithPriority(priority), stats);
+    }
+
+    @Override
+    public BitSet bitmap(FlagBitmaps bitmaps) {
+        return priority == null ? new BitSet() : bitmaps.priorityBits(priority);
+    }
+
+    @Override
+    public String describe() {
+        return "priority = " + priority;
     }
 }
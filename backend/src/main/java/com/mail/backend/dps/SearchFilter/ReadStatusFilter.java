@@ -1,9 +1,8 @@
 package com.mail.backend.dps.SearchFilter;
 
-import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.BitSet;
 
 public class ReadStatusFilter implements SearchFilter {
     private boolean isRead;
@@ -12,9 +11,33 @@ public class ReadStatusFilter implements SearchFilter {
     }
 
     @Override
-    public List<Email> meetCriteria(List<Email> emails) {
-        return emails.stream()
-                .filter(email -> email.isRead() == isRead)
-                .collect(Collectors.toList());
+    public boolean matches(MailItem item) {
+        return item.isRead() == isRead;
+    }
+
+    @Override
+    public int cost() {
+        return FLAG_COST;
+    }
+
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        int read = stats.countRead();
+        return SearchFilter.fraction(isRead ? read : stats.total() - read, stats);
+    }
+
+    @Override
+    public BitSet bitmap(FlagBitmaps bitmaps) {
+        if (isRead) {
+            return bitmaps.readBits();
+        }
+        BitSet bits = bitmaps.allBits();
+        bits.andNot(bitmaps.readBits());
+        return bits;
+    }
+
+    @Override
+    public String describe() {
+        return "read = " + isRead;
     }
 }
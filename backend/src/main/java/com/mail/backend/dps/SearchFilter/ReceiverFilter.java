@@ -1,25 +1,42 @@
 package com.mail.backend.dps.SearchFilter;
 
 import com.mail.backend.model.Email;
-
-import java.util.List;
-import java.util.stream.Collectors;
+import com.mail.backend.model.MailItem;
 
 public class ReceiverFilter implements SearchFilter {
     private String receiver;
+    private String lowerReceiver;
+
     public ReceiverFilter(String receiver) {
         this.receiver = receiver;
+        this.lowerReceiver = receiver == null ? null : receiver.toLowerCase();
     }
 
     @Override
-    public List<Email> meetCriteria(List<Email> emails) {
+    public boolean matches(MailItem item) {
         if (receiver == null || receiver.trim().isEmpty()) {
-            return emails;
+            return true;
+        }
+        // Index entries don't keep the recipients, only a full email does
+        if (!(item instanceof Email email) || email.getTo() == null) {
+            return false;
         }
-        String lowerReceiver = receiver.toLowerCase();
-        return emails.stream()
-                .filter(email -> email.getTo().stream()
-                        .anyMatch(to -> to.toLowerCase().contains(lowerReceiver)))
-                .collect(Collectors.toList());
+        return email.getTo().stream()
+                .anyMatch(to -> to.toLowerCase().contains(lowerReceiver));
+    }
+
+    @Override
+    public int cost() {
+        return CONTENT_COST;
+    }
+
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        return TEXT_SELECTIVITY;
+    }
+
+    @Override
+    public String describe() {
+        return "to contains '" + receiver + "'";
     }
 }
@@ -1,9 +1,74 @@
 package com.mail.backend.dps.SearchFilter;
 
 import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 
+import java.util.BitSet;
 import java.util.List;
+import java.util.stream.Collectors;
 
+// A search criterion evaluated one message at a time. Filters combine through AndFilter/OrFilter
+// into a single predicate, so a whole query runs in one pass without building intermediate lists.
 public interface SearchFilter {
-    List<Email> meetCriteria(List<Email> emails);
+    // Relative evaluation costs, so combined filters run cheap checks before string matching
+    int FLAG_COST = 1;      // folder, read/starred flags, priority, attachments
+    int DATE_COST = 2;
+    int HEADER_COST = 10;   // substring matching on header fields
+    int CONTENT_COST = 100; // needs the recipients or body, which only a full Email carries
+
+    // Substring matches have no statistics to go by
+    double TEXT_SELECTIVITY = 0.1;
+
+    boolean matches(MailItem item);
+
+    default int cost() {
+        return HEADER_COST;
+    }
+
+    // Estimated fraction of messages that pass, from the index statistics; 1 when nothing is known
+    default double selectivity(IndexStatistics stats) {
+        return 1.0;
+    }
+
+    // The messages that pass as a bitmap over the index ordinals, or null when the filter can't be
+    // answered from the flag bitmaps and has to be checked message by message
+    default BitSet bitmap(FlagBitmaps bitmaps) {
+        return null;
+    }
+
+    // Short human-readable form, shown in search plans
+    default String describe() {
+        return getClass().getSimpleName();
+    }
+
+    static double fraction(int count, IndexStatistics stats) {
+        return stats.total() == 0 ? 0.0 : (double) count / stats.total();
+    }
+
+    // List-based form kept for existing callers
+    default List<Email> meetCriteria(List<Email> emails) {
+        return emails.stream()
+                .filter(this::matches)
+                .collect(Collectors.toList());
+    }
+
+    // Matches every message - the neutral start of an AND chain
+    static SearchFilter all() {
+        return new SearchFilter() {
+            @Override
+            public boolean matches(MailItem item) {
+                return true;
+            }
+
+            @Override
+            public int cost() {
+                return 0;
+            }
+
+            @Override
+            public String describe() {
+                return "all";
+            }
+        };
+    }
 }
@@ -1,26 +1,31 @@
 package com.mail.backend.dps.SearchFilter;
 
-import com.mail.backend.model.Email;
-
-import java.util.List;
-import java.util.stream.Collectors;
+import com.mail.backend.model.MailItem;
 
 public class SenderFilter implements SearchFilter {
     private String sender;
+    private String lowerSender;
 
     public SenderFilter(String sender) {
         this.sender = sender;
+        this.lowerSender = sender == null ? null : sender.toLowerCase();
     }
 
     @Override
-    public List<Email> meetCriteria(List<Email> emails) {
+    public boolean matches(MailItem item) {
         if (sender == null || sender.trim().isEmpty()) {
-            return emails;
+            return true;
         }
-        String lowerSender = sender.toLowerCase();
-        return emails.stream()
-                .filter(email -> email.getFrom().toLowerCase().contains(lowerSender))
-                .collect(Collectors.toList());
+        return item.getFrom() != null && item.getFrom().toLowerCase().contains(lowerSender);
+    }
+
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        return TEXT_SELECTIVITY;
     }
 
+    @Override
+    public String describe() {
+        return "from contains '" + sender + "'";
+    }
 }
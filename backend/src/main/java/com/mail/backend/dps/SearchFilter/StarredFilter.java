@@ -1,15 +1,32 @@
 package com.mail.backend.dps.SearchFilter;
 
-import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.BitSet;
 
 public class StarredFilter implements SearchFilter {
     @Override
-    public List<Email> meetCriteria(List<Email> emails) {
-        return emails.stream()
-                .filter(Email::isStarred)
-                .collect(Collectors.toList());
+    public boolean matches(MailItem item) {
+        return item.isStarred();
+    }
+
+    @Override
+    public int cost() {
+        return FLAG_COST;
+    }
+
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        return SearchFilter.fraction(stats.countStarred(), stats);
+    }
+
+    @Override
+    public BitSet bitmap(FlagBitmaps bitmaps) {
+        return bitmaps.starredBits();
+    }
+
+    @Override
+    public String describe() {
+        return "starred";
     }
 }
@@ -1,24 +1,31 @@
 package com.mail.backend.dps.SearchFilter;
 
-import com.mail.backend.model.Email;
-
-import java.util.List;
-import java.util.stream.Collectors;
+import com.mail.backend.model.MailItem;
 
 public class SubjectFilter implements SearchFilter {
     private String subject;
+    private String lowerSubject;
+
     public SubjectFilter(String subject) {
         this.subject = subject;
+        this.lowerSubject = subject == null ? null : subject.toLowerCase();
     }
 
     @Override
-    public List<Email> meetCriteria(List<Email> emails) {
+    public boolean matches(MailItem item) {
         if (subject == null || subject.trim().isEmpty()) {
-            return emails;
+            return true;
         }
-        String lowerSubject = subject.toLowerCase();
-        return emails.stream()
-                .filter(email -> email.getSubject().toLowerCase().contains(lowerSubject))
-                .collect(Collectors.toList());
+        return item.getSubject() != null && item.getSubject().toLowerCase().contains(lowerSubject);
+    }
+
+    @Override
+    public double selectivity(IndexStatistics stats) {
+        return TEXT_SELECTIVITY;
+    }
+
+    @Override
+    public String describe() {
+        return "subject contains '" + subject + "'";
     }
 }
@@ -0,0 +1,150 @@
+package com.mail.backend.dps.factory;
+
+import com.mail.backend.dps.command.*;
+import com.mail.backend.model.Email;
+import com.mail.backend.model.Filter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+// A user's filters, compiled once and then applied to every email delivered to them.
+// Immutable, so one instance is shared by concurrent deliveries; the first matching rule in order decides
+// the action. Rules that can never match (unknown property, matcher or action) are dropped here.
+// The contains / startswith / endswith / exactly rules of each property share one Aho–Corasick automaton, so
+// an email's subject, body, sender and recipients are each scanned once, whatever the number of rules.
+@Slf4j
+public class CompiledFilters {
+
+    public static final CompiledFilters EMPTY = new CompiledFilters(List.of());
+
+    private static final Map<String, Action> ACTIONS = Map.of(
+            "move", new Move(),
+            "star", new Star(),
+            "delete", new Delete(),
+            "markread", new MarkRead(),
+            "forward", new Forward()
+    );
+
+    private record Rule(Filter filter, FilterFactory matcher, Action action) {
+    }
+
+    // The pattern rules of one property in a single automaton; pattern i belongs to rule ruleOf[i]
+    private record PatternGroup(String property, MultiPatternMatcher automaton, int[] ruleOf) {
+    }
+
+    private final List<Rule> rules;
+    private final List<PatternGroup> groups;
+    // Indexes of the rules matched one by one (complex rules, empty values), in rule order
+    private final int[] directRules;
+    private final boolean readsBody;
+
+    private CompiledFilters(List<Rule> rules) {
+        this.rules = rules;
+        this.readsBody = rules.stream().anyMatch(rule -> rule.matcher().readsBody());
+
+        Map<String, List<Integer>> byProperty = new LinkedHashMap<>();
+        List<Integer> direct = new ArrayList<>();
+        for (int i = 0; i < rules.size(); i++) {
+            FilterFactory matcher = rules.get(i).matcher();
+            if (matcher.isPattern()) {
+                byProperty.computeIfAbsent(matcher.getProperty(), property -> new ArrayList<>()).add(i);
+            } else {
+                direct.add(i);
+            }
+        }
+
+        List<PatternGroup> groups = new ArrayList<>();
+        byProperty.forEach((property, ruleIndexes) -> {
+            List<String> patterns = ruleIndexes.stream().map(i -> rules.get(i).matcher().getValue()).toList();
+            groups.add(new PatternGroup(property, new MultiPatternMatcher(patterns),
+                    ruleIndexes.stream().mapToInt(Integer::intValue).toArray()));
+        });
+        this.groups = List.copyOf(groups);
+        this.directRules = direct.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static CompiledFilters compile(List<Filter> filters) {
+        List<Rule> rules = new ArrayList<>();
+        for (Filter filter : filters) {
+            if (filter.getProperty() == null || filter.getMatcher() == null || filter.getAction() == null) {
+                log.warn("Skipping incomplete filter {}", filter.getId());
+                continue;
+            }
+            Action action = ACTIONS.get(filter.getAction().toLowerCase());
+            FilterFactory matcher = new FilterFactory(filter.getProperty(), filter.getMatcher(), filter.getValue());
+            if (action == null || !matcher.isValid()) {
+                continue;
+            }
+            rules.add(new Rule(filter, matcher, action));
+        }
+        return new CompiledFilters(List.copyOf(rules));
+    }
+
+    // The first filter matching the email, or null
+    public Filter firstMatch(Email email) {
+        Rule rule = firstMatching(new FilterTarget(email));
+        return rule == null ? null : rule.filter();
+    }
+
+    // Runs the action of the first matching filter on the email
+    public Email apply(Email email) throws Exception {
+        Rule rule = firstMatching(new FilterTarget(email));
+        return rule == null ? email : rule.action().execute(email, rule.filter());
+    }
+
+    public int size() {
+        return rules.size();
+    }
+
+    // Whether any rule looks at the body; when none does, emails can be matched on their header alone
+    public boolean readsBody() {
+        return readsBody;
+    }
+
+    // Every pattern rule is decided by one scan of each property's text; the direct rules are only tried
+    // while no earlier rule has matched, so the result is the same as trying all rules in order
+    private Rule firstMatching(FilterTarget target) {
+        BitSet matched = new BitSet(rules.size());
+        for (PatternGroup group : groups) {
+            if (group.property().equals("to")) {
+                if (target.to() != null) {
+                    target.to().forEach(address -> scan(group, address, matched));
+                }
+            } else {
+                scan(group, textOf(target, group.property()), matched);
+            }
+        }
+
+        int firstPattern = matched.nextSetBit(0);
+        for (int direct : directRules) {
+            if (firstPattern >= 0 && firstPattern < direct) {
+                break;
+            }
+            if (rules.get(direct).matcher().filter(target)) {
+                return rules.get(direct);
+            }
+        }
+        return firstPattern >= 0 ? rules.get(firstPattern) : null;
+    }
+
+    private void scan(PatternGroup group, String text, BitSet matched) {
+        if (text == null) {
+            return;
+        }
+        group.automaton().scan(text, (pattern, start, end) -> {
+            int rule = group.ruleOf()[pattern];
+            if (!matched.get(rule) && rules.get(rule).matcher().accepts(start, end, text.length())) {
+                matched.set(rule);
+            }
+        });
+    }
+
+    private static String textOf(FilterTarget target, String property) {
+        return switch (property) {
+            case "subject" -> target.subject();
+            case "body" -> target.plainBody();
+            case "from" -> target.from();
+            default -> null;
+        };
+    }
+}
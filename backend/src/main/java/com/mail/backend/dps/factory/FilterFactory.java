@@ -1,54 +1,117 @@
 package com.mail.backend.dps.factory;
-import com.mail.backend.model.Email;
+
 import lombok.extern.slf4j.Slf4j;
 
+import java.util.ArrayList;
 import java.util.List;
 
+// Matches emails against one filter rule.
+// Made once when a user's filters are compiled: the value is lowercased and a complex rule is split into its
+// conditions up front, so matching an email only compares strings that are already lowercased.
+// Plain text rules (isPattern) are normally matched together by CompiledFilters; filter() covers the rest.
 @Slf4j
 public class FilterFactory {
+    private final String property;
     private final String matcher;
-    public FilterFactory(String matcher) {
-        this.matcher = matcher;
+    private final String value;
+    private final List<String[]> conditions;
+
+    public FilterFactory(String property, String matcher, String filteringValue) {
+        this.property = property.toLowerCase();
+        this.matcher = matcher.toLowerCase();
+        this.value = filteringValue == null ? null : filteringValue.toLowerCase();
+        this.conditions = "complex".equals(this.matcher) ? parseConditions(this.value) : List.of();
     }
-    public boolean filter(Object emailValue,String filteringValue) {
-        if (emailValue == null || filteringValue == null) {
-            return false;
-        }
 
-        //complex matcher
-        //'filteringValue' -->  "key:val;key:val"
-        if ("complex".equalsIgnoreCase(matcher) && emailValue instanceof Email) {
-            return matchComplex((Email) emailValue, filteringValue);
-        }
+    // Whether the rule can ever match: a known property, and a complex matcher only on the composite property
+    public boolean isValid() {
+        return switch (property) {
+            case "subject", "body", "from", "to", "receiver" -> !"complex".equals(matcher);
+            case "composite" -> "complex".equals(matcher);
+            default -> false;
+        };
+    }
 
-        if (emailValue instanceof List<?>) {
-            List<?> list = (List<?>) emailValue;
-            return list.stream()
-                    .map(Object::toString)
-                    .anyMatch(item -> matchString(item, filteringValue));
-        }
-        return matchString(emailValue.toString(), filteringValue);
+    // A rule on one text property that the multi-pattern matcher can take over:
+    // its property's text has to contain, start with, end with or equal the value
+    public boolean isPattern() {
+        return value != null && !value.isEmpty()
+                && List.of("subject", "body", "from", "to", "receiver").contains(property)
+                && List.of("contains", "startswith", "endswith", "exactly").contains(matcher);
+    }
+
+    // Whether matching needs the email's body, not just its header
+    public boolean readsBody() {
+        return "body".equals(property)
+                || conditions.stream().anyMatch(condition -> "body".equals(condition[0]));
+    }
+
+    // "receiver" is another name for "to"
+    public String getProperty() {
+        return "receiver".equals(property) ? "to" : property;
+    }
+
+    public String getMatcher() {
+        return matcher;
+    }
+
+    public String getValue() {
+        return value;
     }
 
+    // Whether an occurrence of the value at [start, end) of text satisfies the rule
+    public boolean accepts(int start, int end, int textLength) {
+        return switch (matcher) {
+            case "contains" -> true;
+            case "startswith" -> start == 0;
+            case "endswith" -> end == textLength;
+            case "exactly" -> start == 0 && end == textLength;
+            default -> false;
+        };
+    }
 
-    private boolean matchComplex(Email email, String rules) {
-        String[] conditions = rules.split(";");
+    public boolean filter(FilterTarget email) {
+        if (value == null) {
+            return false;
+        }
+
+        return switch (property) {
+            case "subject" -> matchString(email.subject());
+            case "body" -> matchString(email.plainBody());
+            case "from" -> matchString(email.from());
+            case "to", "receiver" -> email.to() != null && email.to().stream().anyMatch(this::matchString);
+            case "composite" -> "complex".equals(matcher) && matchComplex(email);
+            default -> false;
+        };
+    }
 
-        for (String condition : conditions) {
+    //complex matcher
+    //'filteringValue' -->  "key:val;key:val"
+    private static List<String[]> parseConditions(String rules) {
+        List<String[]> conditions = new ArrayList<>();
+        if (rules == null) {
+            return conditions;
+        }
+        for (String condition : rules.split(";")) {
             String[] parts = condition.split(":", 2);
             if (parts.length < 2) continue;
+            conditions.add(new String[]{parts[0].trim(), parts[1].trim()});
+        }
+        return conditions;
+    }
 
-            String key = parts[0].trim().toLowerCase();
-            String val = parts[1].trim().toLowerCase();
-            String target = "";
+    private boolean matchComplex(FilterTarget email) {
+        for (String[] condition : conditions) {
+            String val = condition[1];
+            String target;
 
-            switch (key) {
-                case "from": target = email.getFrom(); break;
-                case "subject": target = email.getSubject(); break;
-                case "body": target = email.getBody(); break;
+            switch (condition[0]) {
+                case "from": target = email.from(); break;
+                case "subject": target = email.subject(); break;
+                case "body": target = email.body(); break;
                 case "to":
                 case "receiver":
-                    if (email.getTo() != null && email.getTo().stream().noneMatch(t -> t.toLowerCase().contains(val))) {
+                    if (email.to() != null && email.to().stream().noneMatch(t -> t.contains(val))) {
                         return false;
                     }
                     continue;
@@ -56,24 +119,22 @@ public class FilterFactory {
             }
 
             // Standard contains check for strings
-            if (target == null || !target.toLowerCase().contains(val)) {
+            if (target == null || !target.contains(val)) {
                 return false;
             }
         }
         return true;
     }
 
-
-
-    private boolean matchString(String text, String query) {
-        String lowerText = text.toLowerCase();
-        String lowerQuery = query.toLowerCase();
-
-        return switch (matcher.toLowerCase()) {
-            case "contains" -> lowerText.contains(lowerQuery);
-            case "startswith" -> lowerText.startsWith(lowerQuery);
-            case "endswith" -> lowerText.endsWith(lowerQuery);
-            case "exactly" -> lowerText.equals(lowerQuery);
+    private boolean matchString(String text) {
+        if (text == null) {
+            return false;
+        }
+        return switch (matcher) {
+            case "contains" -> text.contains(value);
+            case "startswith" -> text.startsWith(value);
+            case "endswith" -> text.endsWith(value);
+            case "exactly" -> text.equals(value);
             default -> false;
         };
     }
@@ -0,0 +1,59 @@
+package com.mail.backend.dps.factory;
+
+import com.mail.backend.model.Email;
+import com.mail.backend.service.HtmlHelper;
+
+import java.util.List;
+
+// An email as the filters see it: every part lowercased, and the body also as plain text.
+// Each part is computed the first time a rule looks at it and then shared by all the other rules.
+public class FilterTarget {
+
+    private final Email email;
+    private String subject;
+    private String from;
+    private String body;
+    private String plainBody;
+    private List<String> to;
+
+    public FilterTarget(Email email) {
+        this.email = email;
+    }
+
+    public String subject() {
+        if (subject == null && email.getSubject() != null) {
+            subject = email.getSubject().toLowerCase();
+        }
+        return subject;
+    }
+
+    public String from() {
+        if (from == null && email.getFrom() != null) {
+            from = email.getFrom().toLowerCase();
+        }
+        return from;
+    }
+
+    // The body as stored, markup included
+    public String body() {
+        if (body == null && email.getBody() != null) {
+            body = email.getBody().toLowerCase();
+        }
+        return body;
+    }
+
+    // The body's text without markup
+    public String plainBody() {
+        if (plainBody == null && email.getBody() != null) {
+            plainBody = HtmlHelper.extractPlainText(email.getBody()).toLowerCase();
+        }
+        return plainBody;
+    }
+
+    public List<String> to() {
+        if (to == null && email.getTo() != null) {
+            to = email.getTo().stream().map(Object::toString).map(String::toLowerCase).toList();
+        }
+        return to;
+    }
+}
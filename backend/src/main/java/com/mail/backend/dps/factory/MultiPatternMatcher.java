@@ -0,0 +1,96 @@
+package com.mail.backend.dps.factory;
+
+import java.util.*;
+
+// Aho–Corasick automaton over a fixed set of patterns: one pass over a text reports every occurrence of every
+// pattern, however many patterns there are. Built once and immutable afterwards, so it can be shared by threads.
+public class MultiPatternMatcher {
+
+    // Receives each occurrence: the pattern's index in the list it was built from, and where it is in the text
+    public interface Hit {
+        void found(int pattern, int start, int end);
+    }
+
+    private static final int[] NO_PATTERNS = new int[0];
+
+    private final List<Map<Character, Integer>> next = new ArrayList<>();
+    private final int[] fail;
+    // The next node on the fail chain that ends a pattern, or -1 - so reporting skips nodes without output
+    private final int[] outputLink;
+    private final int[][] output;
+    private final int[] patternLength;
+
+    public MultiPatternMatcher(List<String> patterns) {
+        // The trie of all patterns
+        next.add(new HashMap<>());
+        List<List<Integer>> ends = new ArrayList<>();
+        ends.add(new ArrayList<>());
+        patternLength = new int[patterns.size()];
+        for (int p = 0; p < patterns.size(); p++) {
+            String pattern = patterns.get(p);
+            patternLength[p] = pattern.length();
+            int node = 0;
+            for (int i = 0; i < pattern.length(); i++) {
+                Integer child = next.get(node).get(pattern.charAt(i));
+                if (child == null) {
+                    child = next.size();
+                    next.add(new HashMap<>());
+                    ends.add(new ArrayList<>());
+                    next.get(node).put(pattern.charAt(i), child);
+                }
+                node = child;
+            }
+            ends.get(node).add(p);
+        }
+
+        int nodes = next.size();
+        fail = new int[nodes];
+        outputLink = new int[nodes];
+        output = new int[nodes][];
+        for (int node = 0; node < nodes; node++) {
+            output[node] = ends.get(node).isEmpty() ? NO_PATTERNS
+                    : ends.get(node).stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        // Fail links breadth first: the longest proper suffix of a node's string that is also in the trie
+        outputLink[0] = -1;
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int child : next.get(0).values()) {
+            fail[child] = 0;
+            outputLink[child] = -1;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (Map.Entry<Character, Integer> edge : next.get(node).entrySet()) {
+                int child = edge.getValue();
+                int f = fail[node];
+                while (f != 0 && !next.get(f).containsKey(edge.getKey())) {
+                    f = fail[f];
+                }
+                Integer target = next.get(f).get(edge.getKey());
+                fail[child] = target != null && target != child ? target : 0;
+                outputLink[child] = output[fail[child]].length > 0 ? fail[child] : outputLink[fail[child]];
+                queue.add(child);
+            }
+        }
+    }
+
+    public void scan(String text, Hit hit) {
+        int node = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            Integer child;
+            while ((child = next.get(node).get(c)) == null && node != 0) {
+                node = fail[node];
+            }
+            node = child == null ? 0 : child;
+
+            for (int out = output[node].length > 0 ? node : outputLink[node]; out > 0; out = outputLink[out]) {
+                for (int pattern : output[out]) {
+                    hit.found(pattern, i + 1 - patternLength[pattern], i + 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.mail.backend.dps.strategy;
+
+import com.mail.backend.model.EmailMetadata;
+import com.mail.backend.model.MailItem;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+
+// Position in a sorted listing: the sort key of the last email already returned.
+// The next page is everything after that key in the same order, so pages don't shift when mail arrives.
+// Clients get it as an opaque string: URL-safe base64 of "sort|priority|timestamp|messageId".
+public class PageCursor {
+    private final String sort;
+    private final EmailMetadata position;
+
+    private PageCursor(String sort, EmailMetadata position) {
+        this.sort = sort;
+        this.position = position;
+    }
+
+    public static String encode(SortStrategy strategy, MailItem last) {
+        String key = strategy.name()
+                + "|" + (last.getPriority() == null ? "" : last.getPriority())
+                + "|" + (last.getTimestamp() == null ? "" : last.getTimestamp())
+                + "|" + last.getMessageId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static PageCursor decode(String cursor) {
+        try {
+            String key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            String[] parts = key.split("\\|", 4);
+            if (parts.length != 4) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+            EmailMetadata position = new EmailMetadata();
+            position.setPriority(parts[1].isEmpty() ? null : Integer.valueOf(parts[1]));
+            position.setTimestamp(parts[2].isEmpty() ? null : LocalDateTime.parse(parts[2]));
+            position.setMessageId(parts[3]);
+            return new PageCursor(parts[0], position);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor");
+        }
+    }
+
+    // The cursor only means something in the order it was issued for
+    public EmailMetadata positionIn(SortStrategy strategy) {
+        if (!sort.equals(strategy.name())) {
+            throw new IllegalArgumentException("Cursor was issued for sortBy=" + sort);
+        }
+        return position;
+    }
+}
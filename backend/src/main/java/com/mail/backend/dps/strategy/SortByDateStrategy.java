@@ -1,15 +1,21 @@
 package com.mail.backend.dps.strategy;
 
-import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 import java.util.Comparator;
-import java.util.List;
-import java.util.stream.Collectors;
 
 public class SortByDateStrategy implements SortStrategy {
+    // Newest first
+    public static final Comparator<MailItem> NEWEST_FIRST = Comparator
+            .comparing(MailItem::getTimestamp, Comparator.nullsLast(Comparator.reverseOrder()))
+            .thenComparing(MailItem::getMessageId);
+
+    @Override
+    public String name() {
+        return "date";
+    }
+
     @Override
-    public List<Email> sort(List<Email> emails) {
-        return emails.stream()
-                .sorted(Comparator.comparing(Email::getTimestamp).reversed())
-                .collect(Collectors.toList());
+    public Comparator<MailItem> comparator() {
+        return NEWEST_FIRST;
     }
-}
\ No newline at end of file
+}
@@ -1,28 +1,22 @@
 package com.mail.backend.dps.strategy;
 
-import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 
-import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.List;
-import java.util.PriorityQueue;
 
 public class SortByPriorityStrategy implements SortStrategy {
-    @Override
-    public List<Email> sort(List<Email> emails) {
-
-        Comparator<Email> comparator = Comparator.comparing(Email::getPriority).reversed().thenComparing(Email::getTimestamp).reversed();
-        PriorityQueue<Email> pq = new PriorityQueue<>(comparator);
+    // Highest priority (1) first, newest first within a priority
+    public static final Comparator<MailItem> HIGHEST_FIRST = Comparator
+            .comparing(MailItem::getPriority, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(SortByDateStrategy.NEWEST_FIRST);
 
-        pq.addAll(emails);
+    @Override
+    public String name() {
+        return "priority";
+    }
 
-        List<Email> sorted = new ArrayList<>();
-        while (!pq.isEmpty()) {
-            sorted.add(pq.poll());
-        }
-        for (Email email : sorted) {
-            System.out.println(sorted.indexOf(email));
-        }
-        return sorted;
+    @Override
+    public Comparator<MailItem> comparator() {
+        return HIGHEST_FIRST;
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,21 @@
 package com.mail.backend.dps.strategy;
 
-import com.mail.backend.model.Email;
+import com.mail.backend.model.MailItem;
 
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 public interface SortStrategy {
-    List<Email> sort(List<Email> emails);
+    // The sortBy value that selects this strategy, also recorded in page cursors
+    String name();
+
+    // The order this strategy sorts by. It ends with the messageId, so equal keys always sort the same way.
+    Comparator<MailItem> comparator();
+
+    default <T extends MailItem> List<T> sort(List<T> emails) {
+        List<T> sorted = new ArrayList<>(emails);
+        sorted.sort(comparator());
+        return sorted;
+    }
 }
@@ -0,0 +1,41 @@
+package com.mail.backend.dps.strategy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+// Selects the first k items of an ordering with a bounded heap: O(n log k) time and O(k) memory,
+// instead of sorting all n items when only the first pages will be shown
+public final class TopK {
+
+    private TopK() {
+    }
+
+    public static <T> List<T> select(Collection<? extends T> items, int k, Comparator<? super T> order) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        if (k >= items.size()) {
+            List<T> all = new ArrayList<>(items);
+            all.sort(order);
+            return all;
+        }
+
+        // Reversed order, so the head is the worst of the k best seen so far
+        PriorityQueue<T> heap = new PriorityQueue<>(k, (a, b) -> order.compare(b, a));
+        for (T item : items) {
+            if (heap.size() < k) {
+                heap.add(item);
+            } else if (order.compare(item, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(item);
+            }
+        }
+
+        List<T> top = new ArrayList<>(heap);
+        top.sort(order);
+        return top;
+    }
+}
@@ -1,86 +1,157 @@
 package com.mail.backend.encryption;
 
-import io.github.cdimascio.dotenv.Dotenv;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
 
-import javax.crypto.Cipher;
-import javax.crypto.NoSuchPaddingException;
-import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.Base64;
-import java.util.HashMap;
 import java.util.Map;
 
+// Message files are stored as a binary envelope: the "JRYN" magic, a format version byte,
+// the raw 12 byte IV, then the AES-GCM ciphertext with its 16 byte tag.
+// Files from before the envelope (a JSON map of base64 "iv" and "encrypted") are still readable.
+@Component
 public class EncryptedFilesManager {
 
-    private final Cipher cipher;
-    private final SecretKeySpec secretKeySpec;
-    private final boolean enabled;
-    private ObjectMapper objectMapper;
-
-    public EncryptedFilesManager (boolean enabled){
-        this.enabled = enabled;
-        this.objectMapper = new ObjectMapper();
-//        System.out.println("Starting encrypted file manager");
-        try {
-            Dotenv dotenv = Dotenv.load();
-            byte[] secretKey = Base64.getDecoder().decode(dotenv.get("EMAIL_ENCRYPTION_SECRET"));
-            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            this.secretKeySpec = new SecretKeySpec(secretKey, "AES");
-        }catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            System.err.println("Error starting file manager");
-            throw new RuntimeException(e);
-        }
-    }
+    private static final byte[] MAGIC = {'J', 'R', 'Y', 'N'};
+    private static final byte FORMAT_VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 1;
 
+    @Autowired
+    private EncryptionService encryptionService;
+    @Value("${mail.encryption-enabled:true}")
+    private boolean enabled;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Writes a message in the binary envelope format
     public void writeEncrypted(Path path, String str, OpenOption... options) throws Exception {
-//        System.out.println("Writing Encrypted");
-        String finalStr;
-        if (enabled) {
-            byte[] iv = new byte[12];
-            new SecureRandom().nextBytes(iv);
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(128, iv);
-            cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, gcmSpec);
-
-            byte[] strBytes = str.getBytes(StandardCharsets.UTF_8);
-            byte[] encryptedBytes = cipher.doFinal(strBytes); // Encrypts and adds the GCM tag
-
-            Map<String, Object> map = new HashMap<>();
-            map.put("iv", Base64.getEncoder().encodeToString(iv));
-            map.put("encrypted", Base64.getEncoder().encodeToString(encryptedBytes));
-
-            finalStr = objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(map);
-        } else {
-            finalStr = str;
+        byte[] strBytes = str.getBytes(StandardCharsets.UTF_8);
+        if (!enabled) {
+            Files.write(path, strBytes, options);
+            return;
         }
-        Files.writeString(path, finalStr, options);
+        Files.write(path, seal(strBytes), options);
     }
+
+    // Reads a message in either the binary envelope or the older base64 JSON wrapper
     public String readDecrypted(Path path) throws Exception {
-//        System.out.println("Reading Decrypted");
-        String finalStr;
-        String fileStr = Files.readString(path);
-//        System.out.println(fileStr);
-        if (enabled) {
-            Map<String, String> map = objectMapper.readValue(fileStr.trim(), Map.class);
+        return open(Files.readAllBytes(path));
+    }
+
+    // True when the file is still stored in a format older than the binary envelope
+    public boolean isLegacyFormat(Path path) throws IOException {
+        if (!enabled) {
+            return false;
+        }
+        byte[] head = new byte[HEADER_LENGTH];
+        try (InputStream in = Files.newInputStream(path)) {
+            int read = in.readNBytes(head, 0, HEADER_LENGTH);
+            return read < HEADER_LENGTH || !isEnvelope(head);
+        }
+    }
+
+    // Rewrites a legacy file as a binary envelope. The new content is written next to the
+    // original and swapped in atomically. Nothing else may write the file meanwhile: the caller
+    // holds whatever lock its writers take.
+    public boolean migrateToEnvelope(Path path) throws Exception {
+        if (!Files.exists(path)) {
+            return false;
+        }
+        byte[] fileBytes = Files.readAllBytes(path);
+        if (!enabled || isEnvelope(fileBytes)) {
+            return false;
+        }
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(tmp, seal(open(fileBytes).getBytes(StandardCharsets.UTF_8)),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.DSYNC);
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
 
-            byte[] iv = Base64.getDecoder().decode(map.get("iv"));
+    private byte[] seal(byte[] plain) throws Exception {
+        byte[] iv = encryptionService.generateIv();
+        byte[] encryptedBytes = encryptionService.encrypt(EncryptionService.EMAIL_KEY, iv, plain); // Encrypts and adds the GCM tag
 
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(128, iv);
-            cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, gcmSpec);
+        return ByteBuffer.allocate(HEADER_LENGTH + iv.length + encryptedBytes.length)
+                .put(MAGIC)
+                .put(FORMAT_VERSION)
+                .put(iv)
+                .put(encryptedBytes)
+                .array();
+    }
+
+    private String open(byte[] fileBytes) throws Exception {
+        if (isEnvelope(fileBytes)) {
+            if (fileBytes[MAGIC.length] != FORMAT_VERSION) {
+                throw new IOException("Unsupported message format version: " + fileBytes[MAGIC.length]);
+            }
+            int ivStart = HEADER_LENGTH;
+            int dataStart = ivStart + EncryptionService.IV_LENGTH;
+            byte[] iv = Arrays.copyOfRange(fileBytes, ivStart, dataStart);
+            byte[] decryptedBytes = encryptionService.decrypt(EncryptionService.EMAIL_KEY, iv,
+                    fileBytes, dataStart, fileBytes.length - dataStart);
+            return new String(decryptedBytes, StandardCharsets.UTF_8);
+        }
+
+        String fileStr = new String(fileBytes, StandardCharsets.UTF_8);
+        if (!enabled) {
+            return fileStr;
+        }
+        Map<String, String> map = objectMapper.readValue(fileStr.trim(), Map.class);
+        if (!map.containsKey("iv") || !map.containsKey("encrypted")) {
+            return fileStr; // written while encryption was disabled
+        }
+
+        byte[] iv = Base64.getDecoder().decode(map.get("iv"));
+        byte[] encryptedBytes = Base64.getDecoder().decode(map.get("encrypted"));
+        byte[] decryptedBytes = encryptionService.decrypt(EncryptionService.EMAIL_KEY, iv,
+                encryptedBytes, 0, encryptedBytes.length);
+        return new String(decryptedBytes, StandardCharsets.UTF_8);
+    }
 
-            byte[] encryptedBytes = Base64.getDecoder().decode(map.get("encrypted"));
-            byte[] decryptedBytes = cipher.doFinal(encryptedBytes);
+    private static boolean isEnvelope(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-            finalStr = new String(decryptedBytes, StandardCharsets.UTF_8);
+    // Encrypts a value into a single base64 token (IV followed by ciphertext), for line based index files
+    public String encryptToString(String str) throws Exception {
+        if (!enabled) {
+            return str;
+        }
+        byte[] iv = encryptionService.generateIv();
+        byte[] encryptedBytes = encryptionService.encrypt(EncryptionService.EMAIL_KEY, iv,
+                str.getBytes(StandardCharsets.UTF_8));
+
+        byte[] token = new byte[iv.length + encryptedBytes.length];
+        System.arraycopy(iv, 0, token, 0, iv.length);
+        System.arraycopy(encryptedBytes, 0, token, iv.length, encryptedBytes.length);
+        return Base64.getEncoder().encodeToString(token);
+    }
 
-        }else {
-            finalStr = fileStr;
+    public String decryptFromString(String token) throws Exception {
+        if (!enabled) {
+            return token;
         }
-        System.out.println(finalStr);
-        return finalStr;
+        byte[] bytes = Base64.getDecoder().decode(token.trim());
+        byte[] iv = Arrays.copyOfRange(bytes, 0, EncryptionService.IV_LENGTH);
+        byte[] decryptedBytes = encryptionService.decrypt(EncryptionService.EMAIL_KEY, iv,
+                bytes, EncryptionService.IV_LENGTH, bytes.length - EncryptionService.IV_LENGTH);
+        return new String(decryptedBytes, StandardCharsets.UTF_8);
     }
 }
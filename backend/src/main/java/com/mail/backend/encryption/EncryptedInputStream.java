@@ -1,34 +1,22 @@
 package com.mail.backend.encryption;
 
-import io.github.cdimascio.dotenv.Dotenv;
-
 import javax.crypto.Cipher;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.rmi.RemoteException;
-import java.security.NoSuchAlgorithmException;
-import java.util.Base64;
 
 public class EncryptedInputStream extends InputStream{
 
     private final InputStream stream;
     private final Cipher cipher;
-    private final SecretKeySpec secretKeySpec;
+    private final EncryptionService encryptionService;
 
-    public EncryptedInputStream(InputStream stream) throws NoSuchPaddingException, NoSuchAlgorithmException {
+    public EncryptedInputStream(InputStream stream, EncryptionService encryptionService) {
         this.stream = stream;
-        try {
-            Dotenv dotenv = Dotenv.load();
-            byte[] secretKey = Base64.getDecoder().decode(dotenv.get("ATTACHMENT_ENCRYPTION_SECRET"));
-            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            this.secretKeySpec = new SecretKeySpec(secretKey, "AES");
-        }catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-            throw new RuntimeException(e);
-        }
+        this.encryptionService = encryptionService;
+        this.cipher = encryptionService.newCipher();
     }
     @Override
     public int read() throws IOException {
@@ -41,14 +29,14 @@ public class EncryptedInputStream extends InputStream{
         byte[] buffer = new byte[1024];
         try {
 
-            byte[] iv = new byte[12];
-            int ivBytesRead = stream.readNBytes(iv, 0, 12);
-            if (ivBytesRead < 12) {
+            byte[] iv = new byte[EncryptionService.IV_LENGTH];
+            int ivBytesRead = stream.readNBytes(iv, 0, EncryptionService.IV_LENGTH);
+            if (ivBytesRead < EncryptionService.IV_LENGTH) {
                 throw new IOException("File too short to contain a valid initialization vector");
             }
 
-            GCMParameterSpec gcmSpec = new GCMParameterSpec(128, iv);
-            cipher.init(Cipher.DECRYPT_MODE, secretKeySpec, gcmSpec);
+            GCMParameterSpec gcmSpec = new GCMParameterSpec(EncryptionService.TAG_LENGTH_BITS, iv);
+            cipher.init(Cipher.DECRYPT_MODE, encryptionService.getKey(EncryptionService.ATTACHMENT_KEY), gcmSpec);
 
             int bytesRead;
             while ((bytesRead = stream.read(buffer)) != -1) {
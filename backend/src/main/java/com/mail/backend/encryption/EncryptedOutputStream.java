@@ -2,31 +2,20 @@ package com.mail.backend.encryption;
 
 import javax.crypto.Cipher;
 import javax.crypto.spec.GCMParameterSpec;
-import javax.crypto.spec.SecretKeySpec;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.security.SecureRandom;
-import java.util.Base64;
-import io.github.cdimascio.dotenv.Dotenv;
 
 public class EncryptedOutputStream extends OutputStream {
 
     private final OutputStream out;
     private final Cipher cipher;
     private boolean initialized = false;
-    private final SecretKeySpec secretKeySpec;
+    private final EncryptionService encryptionService;
 
-    public EncryptedOutputStream(OutputStream out) {
+    public EncryptedOutputStream(OutputStream out, EncryptionService encryptionService) {
         this.out = out;
-        try {
-            Dotenv dotenv = Dotenv.load();
-            byte[] secretKey = Base64.getDecoder().decode(dotenv.get("ATTACHMENT_ENCRYPTION_SECRET"));
-
-            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
-            this.secretKeySpec = new SecretKeySpec(secretKey, "AES");
-        } catch (Exception e) {
-            throw new RuntimeException("Failed to initialize Cipher", e);
-        }
+        this.encryptionService = encryptionService;
+        this.cipher = encryptionService.newCipher();
     }
 
 
@@ -34,12 +23,11 @@ public class EncryptedOutputStream extends OutputStream {
     private void ensureInitialized() throws IOException {
         if (!initialized) {
             try {
-                byte[] iv = new byte[12];
-                new SecureRandom().nextBytes(iv);
+                byte[] iv = encryptionService.generateIv();
                 out.write(iv); // Prepend IV to the actual file
 
-                GCMParameterSpec spec = new GCMParameterSpec(128, iv);
-                cipher.init(Cipher.ENCRYPT_MODE, secretKeySpec, spec);
+                GCMParameterSpec spec = new GCMParameterSpec(EncryptionService.TAG_LENGTH_BITS, iv);
+                cipher.init(Cipher.ENCRYPT_MODE, encryptionService.getKey(EncryptionService.ATTACHMENT_KEY), spec);
                 initialized = true;
             } catch (Exception e) {
                 throw new IOException("Cipher initialization failed", e);
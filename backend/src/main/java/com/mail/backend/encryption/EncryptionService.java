@@ -0,0 +1,100 @@
+package com.mail.backend.encryption;
+
+import io.github.cdimascio.dotenv.Dotenv;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Shared AES-GCM primitives for emails and attachments.
+// Keys are read from .env once, every thread reuses its own Cipher and all IVs come from one SecureRandom.
+@Component
+public class EncryptionService {
+
+    public static final String EMAIL_KEY = "EMAIL_ENCRYPTION_SECRET";
+    public static final String ATTACHMENT_KEY = "ATTACHMENT_ENCRYPTION_SECRET";
+    public static final int IV_LENGTH = 12;
+    public static final int TAG_LENGTH_BITS = 128;
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final SecureRandom secureRandom = new SecureRandom();
+    private final Map<String, SecretKeySpec> keys = new ConcurrentHashMap<>();
+    private final Map<String, SecretKeySpec> macKeys = new ConcurrentHashMap<>();
+    // A Cipher is not thread-safe, but can be re-initialised for every message on the same thread
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(this::newCipher);
+    private volatile Dotenv dotenv;
+
+    public SecretKeySpec getKey(String keyName) {
+        return keys.computeIfAbsent(keyName, name -> {
+            String secret = loadDotenv().get(name);
+            if (secret == null) {
+                throw new IllegalStateException("Missing encryption secret: " + name);
+            }
+            return new SecretKeySpec(Base64.getDecoder().decode(secret), "AES");
+        });
+    }
+
+    public byte[] generateIv() {
+        byte[] iv = new byte[IV_LENGTH];
+        secureRandom.nextBytes(iv);
+        return iv;
+    }
+
+    // Encrypts a whole message; the returned bytes are the ciphertext followed by the GCM tag
+    public byte[] encrypt(String keyName, byte[] iv, byte[] plain) throws GeneralSecurityException {
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.ENCRYPT_MODE, getKey(keyName), new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        return cipher.doFinal(plain);
+    }
+
+    public byte[] decrypt(String keyName, byte[] iv, byte[] data, int offset, int length) throws GeneralSecurityException {
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.DECRYPT_MODE, getKey(keyName), new GCMParameterSpec(TAG_LENGTH_BITS, iv));
+        return cipher.doFinal(data, offset, length);
+    }
+
+    // Keyed hash (HMAC-SHA256) of data, under a key derived from the named secret and a purpose label,
+    // so equal data gets equal names without the names saying anything about the data
+    public byte[] hmac(String keyName, String purpose, byte[] data) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+        mac.init(macKeys.computeIfAbsent(keyName + ":" + purpose, name -> {
+            try {
+                Mac derive = Mac.getInstance(HMAC_ALGORITHM);
+                derive.init(new SecretKeySpec(getKey(keyName).getEncoded(), HMAC_ALGORITHM));
+                return new SecretKeySpec(derive.doFinal(purpose.getBytes(StandardCharsets.UTF_8)), HMAC_ALGORITHM);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HMAC-SHA256 is not available", e);
+            }
+        }));
+        return mac.doFinal(data);
+    }
+
+    // Stream ciphers keep state across many calls, so streams get their own instance
+    public Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("AES/GCM is not available", e);
+        }
+    }
+
+    private Dotenv loadDotenv() {
+        if (dotenv == null) {
+            synchronized (this) {
+                if (dotenv == null) {
+                    dotenv = Dotenv.load();
+                }
+            }
+        }
+        return dotenv;
+    }
+}
@@ -0,0 +1,38 @@
+package com.mail.backend.model;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Outcome of a bulk operation, one item per requested messageId in request order
+@Data
+public class BulkResult {
+    private List<Item> results = new ArrayList<>();
+    private int succeeded;
+    private int failed;
+
+    @Data
+    public static class Item {
+        private String messageId;
+        private boolean success;
+        private String folder; // where the email is now; null once permanently deleted
+        private String error;
+
+        public Item(String messageId, boolean success, String folder, String error) {
+            this.messageId = messageId;
+            this.success = success;
+            this.folder = folder;
+            this.error = error;
+        }
+    }
+
+    public void add(Item item) {
+        results.add(item);
+        if (item.isSuccess()) {
+            succeeded++;
+        } else {
+            failed++;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.mail.backend.model;
+
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Outcome of sending an email, one item per recipient in the order they were addressed.
+// Recipients that exist are queued for delivery; the others fail right away.
+@Data
+public class DeliveryResult {
+    private String messageId;
+    private List<Recipient> recipients = new ArrayList<>();
+    private int queued;
+    private int failed;
+
+    @Data
+    public static class Recipient {
+        private String recipient;
+        private String status; // queued, failed
+        private String error;
+
+        public Recipient(String recipient, String status, String error) {
+            this.recipient = recipient;
+            this.status = status;
+            this.error = error;
+        }
+    }
+
+    public DeliveryResult(String messageId) {
+        this.messageId = messageId;
+    }
+
+    public void queued(String recipient) {
+        recipients.add(new Recipient(recipient, "queued", null));
+        queued++;
+    }
+
+    public void failed(String recipient, String error) {
+        recipients.add(new Recipient(recipient, "failed", error));
+        failed++;
+    }
+}
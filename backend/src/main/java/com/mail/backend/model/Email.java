@@ -5,10 +5,12 @@ import lombok.Data;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import java.util.List;
 
 @Data
-public class Email {
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class Email implements MailItem {
     private String messageId;
     private String from;
     private List<String> to;
@@ -27,6 +29,11 @@ public class Email {
     @com.fasterxml.jackson.annotation.JsonIgnore
     private List<String> forwardedTo;
 
+    @Override
+    public boolean hasAttachments() {
+        return attachments != null && !attachments.isEmpty();
+    }
+
     public Email() {
         this.to = new ArrayList<>();
         this.attachments = new ArrayList<>();
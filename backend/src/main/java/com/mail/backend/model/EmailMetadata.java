@@ -0,0 +1,69 @@
+package com.mail.backend.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+// Index entry for a stored email - enough to list, sort and count messages without decrypting them
+@Data
+public class EmailMetadata implements MailItem {
+    private String messageId;
+    private String folder;
+    @JsonFormat(shape = JsonFormat.Shape.ANY, pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime timestamp;
+    private Integer priority;
+    private boolean read;
+    private boolean starred;
+    private String from;
+    private String subject;
+    private boolean hasAttachments;
+
+    @Override
+    public boolean hasAttachments() {
+        return hasAttachments;
+    }
+
+    public static EmailMetadata of(Email email) {
+        EmailMetadata metadata = new EmailMetadata();
+        metadata.setMessageId(email.getMessageId());
+        metadata.setFolder(email.getFolder());
+        metadata.setTimestamp(email.getTimestamp());
+        metadata.setPriority(email.getPriority());
+        metadata.setRead(email.isRead());
+        metadata.setStarred(email.isStarred());
+        metadata.setFrom(email.getFrom());
+        metadata.setSubject(email.getSubject());
+        metadata.setHasAttachments(email.getAttachments() != null && !email.getAttachments().isEmpty());
+        return metadata;
+    }
+
+    public static EmailMetadata of(EmailSummary summary) {
+        EmailMetadata metadata = new EmailMetadata();
+        metadata.setMessageId(summary.getMessageId());
+        metadata.setFolder(summary.getFolder());
+        metadata.setTimestamp(summary.getTimestamp());
+        metadata.setPriority(summary.getPriority());
+        metadata.setRead(summary.isRead());
+        metadata.setStarred(summary.isStarred());
+        metadata.setFrom(summary.getFrom());
+        metadata.setSubject(summary.getSubject());
+        metadata.setHasAttachments(summary.getAttachments() != null && !summary.getAttachments().isEmpty());
+        return metadata;
+    }
+
+    // Copy of this entry, placed in another folder
+    public EmailMetadata movedTo(String folder) {
+        EmailMetadata metadata = new EmailMetadata();
+        metadata.setMessageId(messageId);
+        metadata.setFolder(folder);
+        metadata.setTimestamp(timestamp);
+        metadata.setPriority(priority);
+        metadata.setRead(read);
+        metadata.setStarred(starred);
+        metadata.setFrom(from);
+        metadata.setSubject(subject);
+        metadata.setHasAttachments(hasAttachments);
+        return metadata;
+    }
+}
@@ -0,0 +1,65 @@
+package com.mail.backend.model;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.mail.backend.service.HtmlHelper;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// Everything about an email except its body, plus a short plain-text preview.
+// This is the header record stored in the mailbox folder, and what list views return.
+@Data
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class EmailSummary implements MailItem {
+    private String messageId;
+    private String from;
+    private List<String> to;
+    private String subject;
+    private String snippet;
+    @JsonFormat(shape = JsonFormat.Shape.ANY, pattern = "yyyy-MM-dd'T'HH:mm:ss")
+    private LocalDateTime timestamp;
+    private Integer priority;
+    private boolean isRead;
+    private boolean isStarred;
+    private boolean isDraft;
+    private String folder;
+    private String originalFolder;
+    private List<AttachmentMetadata> attachments;
+    private LocalDateTime deletedAt;
+    // Address of the body in the shared body store, or null for no body. Internal: only the stored header holds it.
+    @JsonIgnore
+    private String bodyRef;
+
+    public EmailSummary() {
+        this.to = new ArrayList<>();
+        this.attachments = new ArrayList<>();
+    }
+
+    @Override
+    public boolean hasAttachments() {
+        return attachments != null && !attachments.isEmpty();
+    }
+
+    public static EmailSummary of(Email email) {
+        EmailSummary summary = new EmailSummary();
+        summary.setMessageId(email.getMessageId());
+        summary.setFrom(email.getFrom());
+        summary.setTo(email.getTo());
+        summary.setSubject(email.getSubject());
+        summary.setSnippet(HtmlHelper.snippet(email.getBody()));
+        summary.setTimestamp(email.getTimestamp());
+        summary.setPriority(email.getPriority());
+        summary.setRead(email.isRead());
+        summary.setStarred(email.isStarred());
+        summary.setDraft(email.isDraft());
+        summary.setFolder(email.getFolder());
+        summary.setOriginalFolder(email.getOriginalFolder());
+        summary.setAttachments(email.getAttachments());
+        summary.setDeletedAt(email.getDeletedAt());
+        return summary;
+    }
+}
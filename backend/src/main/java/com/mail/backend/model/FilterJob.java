@@ -0,0 +1,49 @@
+package com.mail.backend.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+// A run of one filter, or all of a user's filters, over mail already in the mailbox.
+// Updated by the batches of the job as they finish and read by whoever polls its progress.
+@Data
+public class FilterJob {
+    private final String id = "job-" + UUID.randomUUID().toString().substring(0, 8);
+    @JsonIgnore
+    private final String username;
+    private final String filterId; // null: all of the user's filters
+    private final String folder;   // null: the whole mailbox
+    private final boolean dryRun;  // count matches only, change nothing
+    private volatile String status = "running"; // running, completed, cancelled, failed
+    private volatile int total;
+    private volatile int scanned;
+    private volatile int matched;
+    private volatile int applied;
+    private volatile int failed;
+    private final Map<String, Integer> matchesByFilter = new LinkedHashMap<>();
+    private final LocalDateTime startedAt = LocalDateTime.now();
+    private volatile LocalDateTime finishedAt;
+
+    // Adds the outcome of one batch
+    public synchronized void progress(int scanned, Map<String, Integer> matches, int applied, int failed) {
+        this.scanned += scanned;
+        matches.forEach((filterId, count) -> {
+            matchesByFilter.merge(filterId, count, Integer::sum);
+            this.matched += count;
+        });
+        this.applied += applied;
+        this.failed += failed;
+    }
+
+    public synchronized Map<String, Integer> getMatchesByFilter() {
+        return new LinkedHashMap<>(matchesByFilter);
+    }
+
+    public boolean isRunning() {
+        return "running".equals(status);
+    }
+}
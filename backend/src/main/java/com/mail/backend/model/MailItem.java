@@ -0,0 +1,25 @@
+package com.mail.backend.model;
+
+import java.time.LocalDateTime;
+
+// Common view of a stored message, shared by full emails, their header records and their index entries
+// so the sort strategies and search filters can work on any of them
+public interface MailItem {
+    String getMessageId();
+
+    LocalDateTime getTimestamp();
+
+    Integer getPriority();
+
+    String getFolder();
+
+    String getFrom();
+
+    String getSubject();
+
+    boolean isRead();
+
+    boolean isStarred();
+
+    boolean hasAttachments();
+}
@@ -7,9 +7,15 @@ import java.util.List;
 public class SSE {
     private String type;
     private List<String> to;
+    private int count; // messages an aggregated event stands for, e.g. a bulk flag update
 
     public SSE(String type, List<String> to) {
         this.type = type;
         this.to = to;
     }
+
+    public SSE(String type, List<String> to, int count) {
+        this(type, to);
+        this.count = count;
+    }
 }
@@ -5,6 +5,7 @@ import com.mail.backend.model.AttachmentMetadata;
 import com.mail.backend.model.MimeType;
 import com.mail.backend.encryption.EncryptedInputStream;
 import com.mail.backend.encryption.EncryptedOutputStream;
+import com.mail.backend.encryption.EncryptionService;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -27,12 +28,15 @@ public class AttachmentRepository {
     @Autowired
     private ObjectMapper objectMapper;
 
+    @Autowired
+    private EncryptionService encryptionService;
+
     public Long saveAttachment(String id, InputStream in){
         long size = 0L;
         try{
             Files.createDirectories(Paths.get(attachmentRoot));
             Path dir =  Path.of(attachmentRoot, id + "." + "bin");
-            try (OutputStream out = new EncryptedOutputStream(new FileOutputStream(dir.toFile()))){
+            try (OutputStream out = new EncryptedOutputStream(new FileOutputStream(dir.toFile()), encryptionService)){
                 size = in.transferTo(out);
             }
         }
@@ -48,7 +52,7 @@ public class AttachmentRepository {
             Path path = Path.of(attachmentRoot, attachmentId + "." + "bin");
             File src = path.toFile();
             if (src.exists()){
-                return new EncryptedInputStream(new FileInputStream(src));
+                return new EncryptedInputStream(new FileInputStream(src), encryptionService);
             }else {
                 String ext = MimeType.toFileExtension(getAttachmentMetadata(attachmentId).getMimeType());
                 path = Path.of(attachmentRoot, attachmentId + "." + ext);
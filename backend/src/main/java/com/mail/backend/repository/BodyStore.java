@@ -0,0 +1,140 @@
+package com.mail.backend.repository;
+
+import com.mail.backend.encryption.EncryptedFilesManager;
+import com.mail.backend.encryption.EncryptionService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.HexFormat;
+
+// Message bodies, stored once however many mailboxes hold the message.
+// A body is named by a keyed hash of its text, so an email sent to 200 recipients and kept in Sent is one
+// encrypted blob that 201 headers refer to. Each blob keeps the number of headers referring to it in a
+// .refs file next to it and is deleted when that drops to zero. References are added before a header is
+// written and released after it is deleted, so a crash can only leave a count too high, never too low.
+@Slf4j
+@Repository
+public class BodyStore {
+
+    // Below the users' body directories, under a name no username can take
+    private static final String BLOB_DIR = ".blobs";
+    private static final int LOCK_STRIPES = 64;
+
+    @Value("${mail.body-root:data/bodies}")
+    private String bodyRoot;
+    @Autowired
+    private EncryptedFilesManager encryptedFilesManager;
+    @Autowired
+    private EncryptionService encryptionService;
+
+    // A blob's count is read and rewritten under the lock of its stripe
+    private final Object[] locks = new Object[LOCK_STRIPES];
+
+    public BodyStore() {
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    // Stores a body (unless an identical one is stored already) and adds a reference to it; returns its address
+    public String put(String body) throws IOException {
+        String ref = addressOf(body);
+        Path blob = pathOf(ref);
+        synchronized (lockOf(ref)) {
+            long refs = readRefs(ref);
+            if (refs == 0 || !Files.exists(blob)) {
+                Files.createDirectories(blob.getParent());
+                Path tmp = blob.resolveSibling(blob.getFileName() + ".tmp");
+                try {
+                    encryptedFilesManager.writeEncrypted(tmp, body, StandardOpenOption.CREATE,
+                            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Failed to write body blob " + ref, e);
+                }
+                Files.move(tmp, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            writeRefs(ref, refs + 1);
+        }
+        return ref;
+    }
+
+    // Drops a reference to a body, deleting the blob once nothing refers to it
+    public void release(String ref) {
+        synchronized (lockOf(ref)) {
+            try {
+                long refs = readRefs(ref) - 1;
+                if (refs > 0) {
+                    writeRefs(ref, refs);
+                    return;
+                }
+                Files.deleteIfExists(pathOf(ref));
+                Files.deleteIfExists(refsPath(ref));
+                log.debug("Deleted unreferenced body blob {}", ref);
+            } catch (IOException e) {
+                // The blob is kept; an orphan costs disk space, not correctness
+                log.error("Failed to release body blob {}: {}", ref, e.getMessage());
+            }
+        }
+    }
+
+    public String read(String ref) throws IOException {
+        try {
+            return encryptedFilesManager.readDecrypted(pathOf(ref));
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to read body blob " + ref, e);
+        }
+    }
+
+    // Blobs are spread over 256 directories by the first byte of their address
+    public Path pathOf(String ref) {
+        return Paths.get(bodyRoot, BLOB_DIR, ref.substring(0, 2), ref + ".body");
+    }
+
+    private String addressOf(String body) throws IOException {
+        try {
+            byte[] mac = encryptionService.hmac(EncryptionService.EMAIL_KEY, "body-address",
+                    body.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(mac);
+        } catch (Exception e) {
+            throw new IOException("Failed to address body", e);
+        }
+    }
+
+    private Object lockOf(String ref) {
+        return locks[Math.floorMod(ref.hashCode(), LOCK_STRIPES)];
+    }
+
+    private Path refsPath(String ref) {
+        return Paths.get(bodyRoot, BLOB_DIR, ref.substring(0, 2), ref + ".refs");
+    }
+
+    private long readRefs(String ref) throws IOException {
+        Path path = refsPath(ref);
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(Files.readString(path).trim());
+        } catch (NumberFormatException e) {
+            // A count that can't be read is treated as still referenced rather than collected
+            log.warn("Unreadable reference count of body blob {}", ref);
+            return 1;
+        }
+    }
+
+    private void writeRefs(String ref, long refs) throws IOException {
+        Path path = refsPath(ref);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.writeString(tmp, Long.toString(refs));
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -1,11 +1,19 @@
 package com.mail.backend.repository;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.mail.backend.model.Email;
+import com.mail.backend.model.EmailMetadata;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.mail.backend.encryption.EncryptedFilesManager;
+import com.mail.backend.model.EmailSummary;
+import com.mail.backend.service.HtmlHelper;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
@@ -13,7 +21,10 @@ import java.io.IOException;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -21,14 +32,49 @@ import java.util.stream.Stream;
 @Repository
 public class EmailRepository {
 
+    private static final int LOCK_STRIPES = 64;
+    private static final long SNAPSHOT_SKEW_MILLIS = 60_000;
+
     @Getter
     @Value("${mail.msg-root:data/emails}")
     private String msgRoot;
+    // Email bodies live apart from the mailbox folders so listing a folder never reads them
+    @Value("${mail.body-root:data/bodies}")
+    private String bodyRoot;
     private final ObjectMapper objectMapper;
 
+    @Autowired
+    private MailboxIndexRepository mailboxIndexRepository;
+
+    @Autowired
+    private EncryptedFilesManager encryptedFilesManager;
+
+    @Autowired
+    private SearchIndexRepository searchIndexRepository;
+
+    @Autowired
+    private MessageCache messageCache;
+
+    @Autowired
+    private BodyStore bodyStore;
+
+    // The header as stored keeps the body reference that API responses leave out
+    private abstract static class StoredHeader {
+        @JsonIgnore(false)
+        @JsonProperty
+        private String bodyRef;
+    }
+
+    // Writes of a message's header, and of the body reference it holds, are serialized under the lock of its stripe
+    private final Object[] messageLocks = new Object[LOCK_STRIPES];
+
     public EmailRepository() {
         this.objectMapper = new ObjectMapper();
         this.objectMapper.registerModule(new JavaTimeModule());
+        this.objectMapper.addMixIn(EmailSummary.class, StoredHeader.class);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            messageLocks[i] = new Object();
+        }
     }
 
     // Initialize directory structure
@@ -40,29 +86,72 @@ public class EmailRepository {
         Files.createDirectories(Paths.get(userRoot, "trash"));
     }
 
-    // Save email to specific folder
+    // Save email to specific folder - the body first, then the header that refers to it.
+    // Bodies live in the shared body store, so a message held by many mailboxes is stored once.
     public void saveEmail(String username, Email email) throws IOException {
         createDirectories(username);
-        String folderPath = msgRoot + "/" + username + "/" + email.getFolder();
-        Files.createDirectories(Paths.get(folderPath));
+        Path folderPath = Paths.get(msgRoot, username, String.valueOf(email.getFolder()));
+        Files.createDirectories(folderPath);
+        Path emailPath = folderPath.resolve(email.getMessageId() + ".json");
+
+        EmailSummary summary = EmailSummary.of(email);
+        synchronized (lockOf(username, email.getMessageId())) {
+            // The header may already exist (a draft saved again, a delivery replayed); its old body is
+            // released once the new header is on disk, and the new one if the header couldn't be written
+            String previousRef = Files.exists(emailPath) ? storedBodyRef(username, emailPath) : null;
+            String bodyRef = email.getBody() == null ? null : bodyStore.put(email.getBody());
+            summary.setBodyRef(bodyRef);
+            try {
+                writeHeader(username, emailPath, summary, false);
+            } catch (IOException e) {
+                if (bodyRef != null) {
+                    bodyStore.release(bodyRef);
+                }
+                throw e;
+            }
+            if (previousRef != null) {
+                bodyStore.release(previousRef);
+            }
+        }
+        indexSummary(username, summary);
+        getSearchIndex(username).putField(email.getMessageId(), SearchIndex.BODY, plainText(email.getBody()));
+        log.info("Saved email {} to folder {}", summary.getMessageId(), summary.getFolder());
+    }
+
+    // Writes a header record without updating the indexes, for bulk operations that update them together
+    public void writeSummary(String username, EmailSummary summary) throws IOException {
+        Path folderPath = Paths.get(msgRoot, username, summary.getFolder());
+        Files.createDirectories(folderPath);
+        writeHeader(username, folderPath.resolve(summary.getMessageId() + ".json"), summary, true);
+    }
+
+    // Index changes of a bulk operation, applied in one step: the new entries, and the messages deleted
+    public void applyIndexBatch(String username, List<EmailMetadata> puts, List<String> removals) {
+        mailboxIndexRepository.applyBatch(username, getIndex(username), puts, removals);
+        SearchIndex searchIndex = getSearchIndex(username);
+        for (String messageId : removals) {
+            searchIndex.remove(messageId);
+        }
+    }
 
-        String emailJson = objectMapper.writerWithDefaultPrettyPrinter()
-                .writeValueAsString(email);
+    // Save only the header record of an email; its body is left untouched
+    public void saveSummary(String username, EmailSummary summary) throws IOException {
+        createDirectories(username);
+        String folderPath = msgRoot + "/" + username + "/" + summary.getFolder();
+        Files.createDirectories(Paths.get(folderPath));
 
-        Path emailPath = Paths.get(folderPath, email.getMessageId() + ".json");
+        Path emailPath = Paths.get(folderPath, summary.getMessageId() + ".json");
 //        Files.writeString(emailPath, emailJson, StandardOpenOption.CREATE,
 //                StandardOpenOption.TRUNCATE_EXISTING);
 
-        EncryptedFilesManager files = new EncryptedFilesManager(true);
-        try {
-            files.writeEncrypted(emailPath, emailJson, StandardOpenOption.CREATE,
-                    StandardOpenOption.TRUNCATE_EXISTING);
-        }catch (Exception e){
-            System.err.println(e.getMessage());
-        }
-
+        writeHeader(username, emailPath, summary, true);
+        indexSummary(username, summary);
+        log.info("Saved email {} to folder {}", summary.getMessageId(), summary.getFolder());
+    }
 
-        log.info("Saved email {} to folder {}", email.getMessageId(), email.getFolder());
+    private void indexSummary(String username, EmailSummary summary) {
+        mailboxIndexRepository.upsert(username, getIndex(username), EmailMetadata.of(summary));
+        indexHeader(getSearchIndex(username), summary);
     }
 
     // Get email by ID and folder
@@ -73,17 +162,248 @@ public class EmailRepository {
             throw new IOException("Email not found: " + messageId);
         }
 
-        EncryptedFilesManager files = new EncryptedFilesManager(true);
+        return readEmailFile(username, emailPath);
+    }
+
+    // Get the header record of an email by ID and folder, without its body
+    public EmailSummary getSummary(String username, String folder, String messageId) throws IOException {
+        Path emailPath = Paths.get(msgRoot, username, folder, messageId + ".json");
+
+        if (!Files.exists(emailPath)) {
+            throw new IOException("Email not found: " + messageId);
+        }
+
+        return readSummaryFile(username, emailPath);
+    }
+
+    public EmailSummary getSummary(String username, String messageId) throws IOException {
+        String folder = locate(username, messageId);
+        if (folder == null) {
+            throw new IOException("Email not found: " + messageId);
+        }
+        return getSummary(username, folder, messageId);
+    }
+
+    // Get email by ID alone - the index says which folder holds it, so only that one file is read
+    public Email getEmail(String username, String messageId) throws IOException {
+        String folder = locate(username, messageId);
+        if (folder == null) {
+            throw new IOException("Email not found: " + messageId);
+        }
+        return getEmail(username, folder, messageId);
+    }
+
+    // Folder currently holding a message, or null if the user has no such message
+    public String locate(String username, String messageId) {
+        MailboxIndex index = getIndex(username);
+        EmailMetadata metadata = index.get(messageId);
+        if (metadata != null && Files.exists(Paths.get(msgRoot, username, metadata.getFolder(), messageId + ".json"))) {
+            return metadata.getFolder();
+        }
+
+        // The entry is missing or stale: look for the file by name (no decryption) and repair the index
+        Path userRoot = Paths.get(msgRoot, username);
+        if (Files.exists(userRoot)) {
+            try (Stream<Path> folders = Files.list(userRoot)) {
+                for (Path folder : folders.filter(Files::isDirectory).toList()) {
+                    Path emailPath = folder.resolve(messageId + ".json");
+                    if (Files.exists(emailPath)) {
+                        EmailMetadata repaired = EmailMetadata.of(readSummaryFile(username, emailPath));
+                        repaired.setFolder(folder.getFileName().toString());
+                        mailboxIndexRepository.upsert(username, index, repaired);
+                        log.warn("Repaired index entry for email {} in folder {}", messageId, repaired.getFolder());
+                        return repaired.getFolder();
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Error locating email {}: {}", messageId, e.getMessage());
+            }
+        }
+
+        if (metadata != null) {
+            mailboxIndexRepository.remove(username, index, messageId);
+        }
+        return null;
+    }
+
+    // Decrypt and parse a single header record, or take it from the message cache.
+    // The parsed tree is shared with the cache: it is only ever read, each caller gets its own object from it.
+    private JsonNode readMessageNode(String username, Path emailPath) throws IOException {
+        // Taken before the file is read: a header written meanwhile makes what is read here too old to cache
+        long version = messageCache.version(emailPath);
+        JsonNode cached = messageCache.get(username, emailPath, JsonNode.class);
+        if (cached != null) {
+            return cached;
+        }
 
 //        String emailJson = Files.readString(emailPath);
         String emailJson = "";
         try {
-            emailJson = files.readDecrypted(emailPath);
+            emailJson = encryptedFilesManager.readDecrypted(emailPath);
         }catch (Exception e) {
             System.err.println(e.getMessage());
         }
 
-        return objectMapper.readValue(emailJson, Email.class);
+        JsonNode node = objectMapper.readTree(emailJson);
+        if (!emailJson.isEmpty()) {
+            messageCache.putIfUnchanged(username, emailPath, node, emailJson.length(), version);
+        }
+        return node;
+    }
+
+    private Email readEmailFile(String username, Path emailPath) throws IOException {
+        JsonNode node = readMessageNode(username, emailPath);
+        Email email = objectMapper.treeToValue(node, Email.class);
+        email.setFolder(folderOf(emailPath));
+        if (!node.hasNonNull("body")) {
+            String bodyRef = node.path("bodyRef").textValue();
+            if (bodyRef == null && moveBodyToStore(username, email.getFolder(), email.getMessageId())) {
+                // The body was still in a file of the user's own: moved now rather than when EmailFormatMigrator gets to it
+                bodyRef = storedBodyRef(username, emailPath);
+            }
+            email.setBody(readBody(username, bodyRef));
+        }
+        return email;
+    }
+
+    private EmailSummary readSummaryFile(String username, Path emailPath) throws IOException {
+        JsonNode node = readMessageNode(username, emailPath);
+        EmailSummary summary = objectMapper.treeToValue(node, EmailSummary.class);
+        summary.setFolder(folderOf(emailPath));
+        if (node.hasNonNull("body")) {
+            // Stored before bodies were split out, until EmailFormatMigrator moves the body to the body store
+            summary.setSnippet(HtmlHelper.snippet(node.get("body").asText()));
+        }
+        return summary;
+    }
+
+    // Moves a body stored the old way - inside its header, or in a file of the user's own - into the body store
+    // and rewrites the header to refer to it. Returns false when there was nothing to move.
+    public boolean moveBodyToStore(String username, String folder, String messageId) throws IOException {
+        Path emailPath = Paths.get(msgRoot, username, folder, messageId + ".json");
+        Path legacyPath = legacyBodyPath(username, messageId);
+        synchronized (lockOf(username, messageId)) {
+            if (!Files.exists(emailPath)) {
+                return false;
+            }
+            JsonNode node = readMessageNode(username, emailPath);
+            String body;
+            if (node.hasNonNull("body")) {
+                body = node.get("body").asText();
+            } else if (!node.hasNonNull("bodyRef") && Files.exists(legacyPath)) {
+                try {
+                    body = encryptedFilesManager.readDecrypted(legacyPath);
+                } catch (IOException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new IOException("Failed to read body of email " + messageId, e);
+                }
+            } else {
+                return false;
+            }
+            EmailSummary summary = objectMapper.treeToValue(node, EmailSummary.class);
+            summary.setFolder(folder);
+            summary.setSnippet(HtmlHelper.snippet(body));
+            summary.setBodyRef(bodyStore.put(body));
+            try {
+                writeHeader(username, emailPath, summary, false);
+            } catch (IOException e) {
+                bodyStore.release(summary.getBodyRef());
+                throw e;
+            }
+            Files.deleteIfExists(legacyPath);
+            return true;
+        }
+    }
+
+    // Deletes what is left of the user's own body files once every header's body was moved to the body store:
+    // files of messages deleted meanwhile. Returns how many there were.
+    public int deleteLegacyBodies(String username) throws IOException {
+        Path legacyRoot = Paths.get(bodyRoot, username);
+        if (!Files.isDirectory(legacyRoot)) {
+            return 0;
+        }
+        int deleted = 0;
+        try (Stream<Path> paths = Files.list(legacyRoot)) {
+            for (Path path : paths.toList()) {
+                Files.delete(path);
+                deleted++;
+            }
+        }
+        Files.delete(legacyRoot);
+        return deleted;
+    }
+
+    // Moves rename the header file without rewriting it, so its directory is the folder it is in
+    private static String folderOf(Path emailPath) {
+        return emailPath.getParent().getFileName().toString();
+    }
+
+    // Writes a header next to the old one and swaps it in, so a header on disk is always complete.
+    // Writes through the message cache, so the next read of this header needs no decryption.
+    // keepInlineBody carries over a body the old header still holds inline, for writes that change the header only.
+    private void writeHeader(String username, Path emailPath, EmailSummary summary, boolean keepInlineBody) throws IOException {
+        ObjectNode header = objectMapper.valueToTree(summary);
+        Path tmp = emailPath.resolveSibling(emailPath.getFileName() + ".tmp");
+        synchronized (lockOf(username, summary.getMessageId())) {
+            if (keepInlineBody && summary.getBodyRef() == null && Files.exists(emailPath)) {
+                JsonNode current = readMessageNode(username, emailPath);
+                if (current.hasNonNull("body")) {
+                    header.set("body", current.get("body"));
+                }
+            }
+            String json = objectMapper.writeValueAsString(header);
+            try {
+                encryptedFilesManager.writeEncrypted(tmp, json, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.DSYNC);
+                Files.move(tmp, emailPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                messageCache.invalidate(username, emailPath);
+                throw e;
+            } catch (Exception e) {
+                messageCache.invalidate(username, emailPath);
+                throw new IOException("Failed to write email " + summary.getMessageId(), e);
+            }
+            messageCache.put(username, emailPath, objectMapper.readTree(json), json.length());
+        }
+    }
+
+    private Object lockOf(String username, String messageId) {
+        return messageLocks[Math.floorMod(Objects.hash(username, messageId), LOCK_STRIPES)];
+    }
+
+    // Where a body was stored before the shared body store: one file per user and message
+    private Path legacyBodyPath(String username, String messageId) {
+        return Paths.get(bodyRoot, username, messageId + ".body");
+    }
+
+    // Reads the body a header refers to, or null for a header without one
+    private String readBody(String username, String bodyRef) throws IOException {
+        if (bodyRef == null) {
+            return null;
+        }
+        Path path = bodyStore.pathOf(bodyRef);
+        long version = messageCache.version(path);
+        String cached = messageCache.get(username, path, String.class);
+        if (cached != null) {
+            return cached;
+        }
+        if (!Files.exists(path)) {
+            return null;
+        }
+        String body = bodyStore.read(bodyRef);
+        messageCache.putIfUnchanged(username, path, body, body.length(), version);
+        return body;
+    }
+
+    // The body a stored header refers to, or null
+    private String storedBodyRef(String username, Path emailPath) {
+        try {
+            return readMessageNode(username, emailPath).path("bodyRef").textValue();
+        } catch (IOException e) {
+            log.warn("Could not read the body reference of {}: {}", emailPath, e.getMessage());
+            return null;
+        }
     }
 
     // List all emails in a folder
@@ -99,15 +419,7 @@ public class EmailRepository {
                     .filter(p -> p.toString().endsWith(".json"))
                     .map(p -> {
                         try {
-//                            String json = Files.readString(p);
-                            EncryptedFilesManager files = new EncryptedFilesManager(true);
-                            String emailJson = "";
-                            try {
-                                emailJson = files.readDecrypted(p);
-                            }catch (Exception e) {
-                                System.err.println(e.getMessage());
-                            }
-                            return objectMapper.readValue(emailJson, Email.class);
+                            return readEmailFile(username, p);
                         } catch (IOException e) {
                             log.error("Error reading email: {}", p, e);
                             return null;
@@ -118,20 +430,73 @@ public class EmailRepository {
         }
     }
 
-    // Move email between folders
+    // List the header records of a folder, without reading any bodies
+    public List<EmailSummary> listSummariesInFolder(String username, String folder) throws IOException {
+        Path folderPath = Paths.get(msgRoot, username, folder);
+
+        if (!Files.exists(folderPath)) {
+            return new ArrayList<>();
+        }
+
+        try (Stream<Path> paths = Files.list(folderPath)) {
+            return paths
+                    .filter(p -> p.toString().endsWith(".json"))
+                    .map(p -> {
+                        try {
+                            return readSummaryFile(username, p);
+                        } catch (IOException e) {
+                            log.error("Error reading email: {}", p, e);
+                            return null;
+                        }
+                    })
+                    .filter(summary -> summary != null)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // Move email between folders by renaming its header file: nothing is decrypted or rewritten.
+    // Which folder a message is in is given by the directory holding its header, not by the folder field inside it.
     public void moveEmail(String username, String messageId, String fromFolder,
                           String toFolder) throws IOException {
-        Email email = getEmail(username, fromFolder, messageId);
+        MailboxIndex index = getIndex(username);
+        EmailMetadata metadata = index.get(messageId);
+        if (metadata == null) {
+            metadata = EmailMetadata.of(getSummary(username, fromFolder, messageId));
+        }
+
+        renameHeader(username, messageId, fromFolder, toFolder);
+        mailboxIndexRepository.upsert(username, index, metadata.movedTo(toFolder));
+        log.info("Moved email {} from {} to {}", messageId, fromFolder, toFolder);
+    }
 
-        // Delete from old location
-        deleteEmail(username, fromFolder, messageId);
+    // The file half of a move, leaving the indexes to the caller
+    public void renameHeader(String username, String messageId, String fromFolder, String toFolder) throws IOException {
+        Path fromPath = Paths.get(msgRoot, username, fromFolder, messageId + ".json");
+        Path toPath = Paths.get(msgRoot, username, toFolder, messageId + ".json");
+        if (!Files.exists(fromPath)) {
+            throw new IOException("Email not found: " + messageId);
+        }
+        Files.createDirectories(toPath.getParent());
+        synchronized (lockOf(username, messageId)) {
+            Files.move(fromPath, toPath, StandardCopyOption.ATOMIC_MOVE);
+            messageCache.rename(username, fromPath, toPath);
+        }
+    }
 
-        // Update folder and save to new location
-        email.setFolder(toFolder);
-        if (toFolder.equals("trash")) {
-            email.setDeletedAt(LocalDateTime.now());
+    // Rewrites a header still in the old base64 JSON wrapper as a binary envelope, under the message's lock
+    // so that no header write or move in between is lost. Returns false when there was nothing to rewrite.
+    public boolean migrateHeaderFormat(String username, String folder, String messageId) throws IOException {
+        Path emailPath = Paths.get(msgRoot, username, folder, messageId + ".json");
+        synchronized (lockOf(username, messageId)) {
+            try {
+                return Files.exists(emailPath) && encryptedFilesManager.isLegacyFormat(emailPath)
+                        && encryptedFilesManager.migrateToEnvelope(emailPath);
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Failed to migrate email " + messageId, e);
+            }
         }
-        saveEmail(username, email);
     }
 
     // Delete email
@@ -148,9 +513,11 @@ public class EmailRepository {
         }
 
         try {
-            boolean deleted = Files.deleteIfExists(emailPath);
+            boolean deleted = deleteFiles(username, folder, messageId);
 
             if (deleted) {
+                mailboxIndexRepository.remove(username, getIndex(username), messageId);
+                getSearchIndex(username).remove(messageId);
                 log.info("Successfully deleted email {} from folder {}", messageId, folder);
             } else {
                 log.warn("Files.deleteIfExists returned false for: {}", emailPath);
@@ -164,6 +531,151 @@ public class EmailRepository {
         }
     }
 
+    // The file half of a permanent delete (header, and its reference to the body), leaving the indexes to the caller
+    public boolean deleteFiles(String username, String folder, String messageId) throws IOException {
+        Path emailPath = Paths.get(msgRoot, username, folder, messageId + ".json");
+        String bodyRef;
+        boolean deleted;
+        synchronized (lockOf(username, messageId)) {
+            bodyRef = Files.exists(emailPath) ? storedBodyRef(username, emailPath) : null;
+            deleted = Files.deleteIfExists(emailPath);
+            messageCache.invalidate(username, emailPath);
+        }
+        if (deleted && bodyRef != null) {
+            messageCache.invalidate(username, bodyStore.pathOf(bodyRef));
+            bodyStore.release(bodyRef);
+        }
+        return deleted;
+    }
+
+    // Metadata index of the user's mailbox, checked against the message files the first time it is loaded
+    public MailboxIndex getIndex(String username) {
+        return mailboxIndexRepository.getIndex(username, index -> reconcileIndex(username, index));
+    }
+
+    // Bring a freshly loaded index in line with the files on disk. Only files missing from the
+    // index (or found in another folder) are decrypted, so a healthy index costs one directory listing.
+    private void reconcileIndex(String username, MailboxIndex index) {
+        Path userRoot = Paths.get(msgRoot, username);
+        if (!Files.exists(userRoot)) {
+            return;
+        }
+
+        Set<String> onDisk = new HashSet<>();
+        int changes = 0;
+        try (Stream<Path> folders = Files.list(userRoot)) {
+            for (Path folder : folders.filter(Files::isDirectory).toList()) {
+                String folderName = folder.getFileName().toString();
+                try (Stream<Path> paths = Files.list(folder)) {
+                    for (Path p : paths.filter(p -> p.toString().endsWith(".json")).toList()) {
+                        String fileName = p.getFileName().toString();
+                        String messageId = fileName.substring(0, fileName.length() - ".json".length());
+                        onDisk.add(messageId);
+
+                        EmailMetadata existing = index.get(messageId);
+                        if (existing != null && folderName.equals(existing.getFolder())) {
+                            continue;
+                        }
+                        try {
+                            EmailMetadata metadata = EmailMetadata.of(readSummaryFile(username, p));
+                            metadata.setFolder(folderName);
+                            index.put(metadata);
+                            changes++;
+                        } catch (IOException e) {
+                            log.error("Error indexing email: {}", p, e);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Error scanning mailbox of {} for indexing", username, e);
+            return;
+        }
+
+        for (EmailMetadata stale : index.find(metadata -> !onDisk.contains(metadata.getMessageId()))) {
+            // Saved since the folders were listed, when reconciling an index already in use
+            if (Files.exists(Paths.get(msgRoot, username, stale.getFolder(), stale.getMessageId() + ".json"))) {
+                continue;
+            }
+            index.remove(stale.getMessageId());
+            changes++;
+        }
+
+        if (changes > 0) {
+            log.info("Reconciled {} mailbox index entries for {}", changes, username);
+            mailboxIndexRepository.writeSnapshot(username, index);
+        }
+    }
+
+    // Checks the user's mailbox index against the files on disk again, then recounts its folder counters.
+    // Returns the number of folders whose counters had drifted.
+    public int repairIndex(String username) {
+        MailboxIndex index = getIndex(username);
+        reconcileIndex(username, index);
+        return index.recount();
+    }
+
+    // Full-text index of the user's mailbox, checked against the mailbox index the first time it is loaded
+    public SearchIndex getSearchIndex(String username) {
+        return searchIndexRepository.getIndex(username, index -> reconcileSearchIndex(username, index));
+    }
+
+    // Index what the snapshot is missing (new user, or messages saved after the last flush), index again
+    // the messages whose header was written after the snapshot was taken, and drop what no longer exists.
+    // Only the emails being indexed are read from disk; the others cost a stat of their header.
+    private void reconcileSearchIndex(String username, SearchIndex index) {
+        MailboxIndex mailbox = getIndex(username);
+        Set<String> indexed = index.ids();
+        // A header is written just before its index update, so one written a little before the snapshot
+        // was taken may still be missing from it
+        long changedSince = index.snapshotTakenAt - SNAPSHOT_SKEW_MILLIS;
+        int changes = 0;
+
+        for (EmailMetadata metadata : mailbox.all()) {
+            if (indexed.remove(metadata.getMessageId())
+                    && !writtenSince(username, metadata, changedSince)) {
+                continue;
+            }
+            try {
+                Email email = getEmail(username, metadata.getFolder(), metadata.getMessageId());
+                indexHeader(index, EmailSummary.of(email));
+                index.putField(email.getMessageId(), SearchIndex.BODY, plainText(email.getBody()));
+                changes++;
+            } catch (IOException e) {
+                log.error("Error indexing email {} for search: {}", metadata.getMessageId(), e.getMessage());
+            }
+        }
+        for (String stale : indexed) {
+            index.remove(stale);
+            changes++;
+        }
+
+        if (changes > 0) {
+            log.info("Reconciled {} search index entries for {}", changes, username);
+            searchIndexRepository.writeSnapshot(username, index);
+        }
+    }
+
+    private boolean writtenSince(String username, EmailMetadata metadata, long since) {
+        try {
+            Path emailPath = Paths.get(msgRoot, username, metadata.getFolder(), metadata.getMessageId() + ".json");
+            return Files.getLastModifiedTime(emailPath).toMillis() >= since;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private void indexHeader(SearchIndex index, EmailSummary summary) {
+        index.putField(summary.getMessageId(), SearchIndex.SUBJECT, summary.getSubject());
+        index.putField(summary.getMessageId(), SearchIndex.FROM, summary.getFrom());
+        index.putField(summary.getMessageId(), SearchIndex.TO,
+                summary.getTo() == null ? null : String.join(" ", summary.getTo()));
+    }
+
+    private static String plainText(String body) {
+        return body == null ? null : HtmlHelper.extractPlainText(body);
+    }
+
     // Get all emails for a user (across all folders)
     public List<Email> getAllEmails(String username) throws IOException {
         List<Email> allEmails = new ArrayList<>();
@@ -190,10 +702,10 @@ public class EmailRepository {
 
     // Clean up trash (delete emails older than 30 days)
     public void cleanupTrash(String username) throws IOException {
-        List<Email> trashEmails = listEmailsInFolder(username, "trash");
+        List<EmailSummary> trashEmails = listSummariesInFolder(username, "trash");
         LocalDateTime thirtyDaysAgo = LocalDateTime.now().minusDays(30);
 
-        for (Email email : trashEmails) {
+        for (EmailSummary email : trashEmails) {
             if (email.getDeletedAt() != null &&
                     email.getDeletedAt().isBefore(thirtyDaysAgo)) {
                 deleteEmail(username, "trash", email.getMessageId());
@@ -219,19 +731,18 @@ public class EmailRepository {
     public void deleteFolder(String username, String folderName) throws IOException {
         Path folderPath = Paths.get(msgRoot, username, folderName);
 
-        // Move all emails to inbox before deleting folder
-        List<Email> emails = listEmailsInFolder(username, folderName);
-        for (Email email : emails) {
+        // Move all emails to inbox before deleting folder - the index lists them, no header is read
+        for (EmailMetadata email : getIndex(username).inFolder(folderName)) {
             moveEmail(username, email.getMessageId(), folderName, "inbox");
         }
 
-        List<Email> trashEmails = listEmailsInFolder(username, "trash");
-        for (Email trashEmail : trashEmails) {
+        List<EmailSummary> trashEmails = listSummariesInFolder(username, "trash");
+        for (EmailSummary trashEmail : trashEmails) {
             // If this email's originalFolder is the folder being deleted, reset it to inbox
             if (trashEmail.getOriginalFolder() != null &&
                     trashEmail.getOriginalFolder().equalsIgnoreCase(folderName)) {
                 trashEmail.setOriginalFolder("inbox");
-                saveEmail(username, trashEmail);
+                saveSummary(username, trashEmail);
                 log.info("Updated originalFolder for trashed email {} from {} to inbox",
                         trashEmail.getMessageId(), folderName);
             }
@@ -247,13 +758,11 @@ public class EmailRepository {
         Path newPath = Paths.get(msgRoot, username, newName);
 
         Files.move(oldPath, newPath);
+        // Every cached record of the folder is now under the wrong path
+        messageCache.invalidateUser(username);
 
-        // Update folder field in all emails
-        List<Email> emails = listEmailsInFolder(username, newName);
-        for (Email email : emails) {
-            email.setFolder(newName);
-            saveEmail(username, email);
-        }
+        // The headers need no rewrite: their directory names the folder. Only the index is updated.
+        mailboxIndexRepository.renameFolder(username, getIndex(username), oldName, newName);
 
         log.info("Renamed folder {} to {}", oldName, newName);
     }
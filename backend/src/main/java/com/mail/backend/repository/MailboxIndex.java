@@ -0,0 +1,425 @@
+package com.mail.backend.repository;
+
+import com.mail.backend.dps.SearchFilter.FlagBitmaps;
+import com.mail.backend.dps.SearchFilter.IndexStatistics;
+import com.mail.backend.dps.strategy.SortByDateStrategy;
+import com.mail.backend.dps.strategy.SortByPriorityStrategy;
+import com.mail.backend.dps.strategy.TopK;
+import com.mail.backend.model.EmailMetadata;
+import com.mail.backend.model.MailItem;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Predicate;
+
+// In-memory metadata index of one user's mailbox, keyed by messageId.
+// Every entry also gets a dense ordinal, and one bitmap per flag, priority and folder records which
+// ordinals have it, so flag lookups and counts are bitmap operations rather than scans.
+// Entries are also kept sorted in each order the mailbox is listed in (by date, and by priority then date),
+// per folder and overall, so pages and date ranges are read off an ordered tree instead of sorting or scanning,
+// and a page can start right after a given entry (a page cursor) with a seek.
+// A per-day histogram completes the statistics the search planner uses, and per-folder total and unread
+// counters, kept up to date with every change, let the folder list be built without counting anything.
+// Entries handed out are shared with the index and must be treated as read-only.
+public class MailboxIndex implements IndexStatistics, FlagBitmaps {
+    private final Map<String, EmailMetadata> entries = new HashMap<>();
+
+    // Ordinals of removed entries are reused, so the bitmaps stay as small as the mailbox
+    private final Map<String, Integer> ordinals = new HashMap<>();
+    private final List<EmailMetadata> byOrdinal = new ArrayList<>();
+    private final ArrayDeque<Integer> freeOrdinals = new ArrayDeque<>();
+
+    private final BitSet live = new BitSet();
+    private final BitSet read = new BitSet();
+    private final BitSet starred = new BitSet();
+    private final BitSet attachments = new BitSet();
+    private final Map<Integer, BitSet> byPriority = new HashMap<>();
+    private final Map<String, BitSet> byFolder = new HashMap<>();
+    private final TreeMap<LocalDate, Integer> dayCounts = new TreeMap<>();
+    private final Map<String, FolderCounts> folderCounts = new HashMap<>();
+    private final Ordering byDate = new Ordering(SortByDateStrategy.NEWEST_FIRST);
+    private final Ordering byPriorityOrder = new Ordering(SortByPriorityStrategy.HIGHEST_FIRST);
+
+    // A bitmap with fewer than 1 in SPARSE_RATIO entries set is paged by selecting from its entries
+    // rather than by walking the ordered tree past everything else
+    private static final int SPARSE_RATIO = 16;
+
+    // Number of journal records written since the last snapshot
+    int journalLength;
+
+    public synchronized EmailMetadata get(String messageId) {
+        return entries.get(messageId);
+    }
+
+    public synchronized EmailMetadata put(EmailMetadata metadata) {
+        EmailMetadata previous = entries.put(metadata.getMessageId(), metadata);
+        Integer ordinal = ordinals.get(metadata.getMessageId());
+        if (ordinal == null) {
+            ordinal = freeOrdinals.isEmpty() ? byOrdinal.size() : freeOrdinals.pop();
+            ordinals.put(metadata.getMessageId(), ordinal);
+            if (ordinal == byOrdinal.size()) {
+                byOrdinal.add(null);
+            }
+        } else {
+            unmark(previous, ordinal);
+        }
+        byOrdinal.set(ordinal, metadata);
+        mark(metadata, ordinal);
+        return previous;
+    }
+
+    public synchronized EmailMetadata remove(String messageId) {
+        EmailMetadata previous = entries.remove(messageId);
+        if (previous != null) {
+            int ordinal = ordinals.remove(messageId);
+            unmark(previous, ordinal);
+            byOrdinal.set(ordinal, null);
+            freeOrdinals.push(ordinal);
+        }
+        return previous;
+    }
+
+    public synchronized List<EmailMetadata> find(Predicate<EmailMetadata> predicate) {
+        List<EmailMetadata> result = new ArrayList<>();
+        for (EmailMetadata metadata : entries.values()) {
+            if (predicate.test(metadata)) {
+                result.add(metadata);
+            }
+        }
+        return result;
+    }
+
+    public synchronized int count(Predicate<EmailMetadata> predicate) {
+        int count = 0;
+        for (EmailMetadata metadata : entries.values()) {
+            if (predicate.test(metadata)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public synchronized List<EmailMetadata> inFolder(String folder) {
+        return entriesOf(byFolder.getOrDefault(folder, new BitSet()));
+    }
+
+    public synchronized List<EmailMetadata> all() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized int folderSize(String folder) {
+        TreeSet<EmailMetadata> folderEntries = byDate.folders.get(folder);
+        return folderEntries == null ? 0 : folderEntries.size();
+    }
+
+    // One page of a folder in the given order: the entries after `after` (from the start when null),
+    // skipping the first offset of them
+    public synchronized List<EmailMetadata> folderPage(Comparator<MailItem> order, String folder,
+                                                      EmailMetadata after, int offset, int limit) {
+        TreeSet<EmailMetadata> folderEntries = ordering(order).folders.get(folder);
+        if (folderEntries == null) {
+            return new ArrayList<>();
+        }
+        return take(after == null ? folderEntries : folderEntries.tailSet(after, false), null, null, offset, limit);
+    }
+
+    // One page, in the given order, of the entries set in a bitmap (e.g. starred or search candidates)
+    // that also pass filter (null for none)
+    public synchronized List<EmailMetadata> page(Comparator<MailItem> order, BitSet bits, Predicate<? super EmailMetadata> filter,
+                                                EmailMetadata after, int offset, int limit) {
+        TreeSet<EmailMetadata> all = ordering(order).all;
+        if ((long) bits.cardinality() * SPARSE_RATIO >= all.size()) {
+            // Walk the tree until the page is full
+            return take(after == null ? all : all.tailSet(after, false), bits, filter, offset, limit);
+        }
+
+        // Few candidates: cheaper to pick the page out of them than to walk past everything else
+        List<EmailMetadata> candidates = entriesOf(bits);
+        candidates.removeIf(entry -> (after != null && order.compare(entry, after) <= 0)
+                || (filter != null && !filter.test(entry)));
+        List<EmailMetadata> top = TopK.select(candidates, offset + limit, order);
+        return offset >= top.size() ? new ArrayList<>() : new ArrayList<>(top.subList(offset, top.size()));
+    }
+
+    // Entries behind the set ordinals of a bitmap
+    public synchronized List<EmailMetadata> entriesOf(BitSet bits) {
+        List<EmailMetadata> result = new ArrayList<>(bits.cardinality());
+        for (int ordinal = bits.nextSetBit(0); ordinal >= 0; ordinal = bits.nextSetBit(ordinal + 1)) {
+            EmailMetadata metadata = ordinal < byOrdinal.size() ? byOrdinal.get(ordinal) : null;
+            if (metadata != null) {
+                result.add(metadata);
+            }
+        }
+        return result;
+    }
+
+    // Bitmap of the given messages, e.g. a full-text search result, to combine with the flag bitmaps
+    public synchronized BitSet bitsOf(Collection<String> messageIds) {
+        BitSet bits = new BitSet(byOrdinal.size());
+        for (String messageId : messageIds) {
+            Integer ordinal = ordinals.get(messageId);
+            if (ordinal != null) {
+                bits.set(ordinal);
+            }
+        }
+        return bits;
+    }
+
+    // Bitmaps handed out are copies, free to modify
+
+    @Override
+    public synchronized BitSet allBits() {
+        return (BitSet) live.clone();
+    }
+
+    // Range scan over the timeline, inclusive at both ends
+    @Override
+    public synchronized BitSet timeRangeBits(LocalDateTime start, LocalDateTime end) {
+        BitSet bits = new BitSet();
+        if (start.isAfter(end)) {
+            return bits;
+        }
+        for (EmailMetadata metadata : byDate.all.subSet(probe(end, ""), true, probe(start, "\uffff"), true)) {
+            bits.set(ordinals.get(metadata.getMessageId()));
+        }
+        return bits;
+    }
+
+    @Override
+    public synchronized BitSet folderBits(String folder) {
+        BitSet bits = new BitSet();
+        byFolder.forEach((name, folderBits) -> {
+            if (name.equalsIgnoreCase(folder)) {
+                bits.or(folderBits);
+            }
+        });
+        return bits;
+    }
+
+    @Override
+    public synchronized BitSet readBits() {
+        return (BitSet) read.clone();
+    }
+
+    @Override
+    public synchronized BitSet starredBits() {
+        return (BitSet) starred.clone();
+    }
+
+    @Override
+    public synchronized BitSet attachmentBits() {
+        return (BitSet) attachments.clone();
+    }
+
+    @Override
+    public synchronized BitSet priorityBits(int priority) {
+        BitSet bits = byPriority.get(priority);
+        return bits == null ? new BitSet() : (BitSet) bits.clone();
+    }
+
+    @Override
+    public synchronized int total() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized int countInFolder(String folder) {
+        return folder == null ? 0 : folderBits(folder).cardinality();
+    }
+
+    public synchronized int countUnreadInFolder(String folder) {
+        return folderCounts(folder).unread();
+    }
+
+    public synchronized FolderCounts folderCounts(String folder) {
+        return folderCounts.getOrDefault(folder, FolderCounts.EMPTY);
+    }
+
+    // Recomputes the folder counters from the bitmaps and returns how many folders had drifted
+    public synchronized int recount() {
+        Map<String, FolderCounts> recounted = new HashMap<>();
+        byFolder.forEach((folder, bits) -> {
+            BitSet unread = (BitSet) bits.clone();
+            unread.andNot(read);
+            recounted.put(folder, new FolderCounts(bits.cardinality(), unread.cardinality()));
+        });
+
+        Set<String> folders = new HashSet<>(folderCounts.keySet());
+        folders.addAll(recounted.keySet());
+        int drifted = 0;
+        for (String folder : folders) {
+            if (!Objects.equals(folderCounts.get(folder), recounted.get(folder))) {
+                drifted++;
+            }
+        }
+        folderCounts.clear();
+        folderCounts.putAll(recounted);
+        return drifted;
+    }
+
+    @Override
+    public synchronized int countRead() {
+        return read.cardinality();
+    }
+
+    @Override
+    public synchronized int countStarred() {
+        return starred.cardinality();
+    }
+
+    @Override
+    public synchronized int countWithAttachments() {
+        return attachments.cardinality();
+    }
+
+    @Override
+    public synchronized int countWithPriority(int priority) {
+        BitSet bits = byPriority.get(priority);
+        return bits == null ? 0 : bits.cardinality();
+    }
+
+    @Override
+    public synchronized int countBetween(LocalDateTime start, LocalDateTime end) {
+        int count = 0;
+        for (int dayCount : dayCounts.subMap(start.toLocalDate(), true, end.toLocalDate(), true).values()) {
+            count += dayCount;
+        }
+        return count;
+    }
+
+    private Ordering ordering(Comparator<MailItem> order) {
+        if (order == byDate.order) return byDate;
+        if (order == byPriorityOrder.order) return byPriorityOrder;
+        throw new IllegalArgumentException("The mailbox index is not kept in this order");
+    }
+
+    private List<EmailMetadata> take(Iterable<EmailMetadata> entries, BitSet bits, Predicate<? super EmailMetadata> filter,
+                                     int offset, int limit) {
+        List<EmailMetadata> page = new ArrayList<>(limit);
+        int matched = 0;
+        for (EmailMetadata metadata : entries) {
+            if (page.size() == limit) {
+                break;
+            }
+            if ((bits == null || bits.get(ordinals.get(metadata.getMessageId())))
+                    && (filter == null || filter.test(metadata))
+                    && matched++ >= offset) {
+                page.add(metadata);
+            }
+        }
+        return page;
+    }
+
+    // Search key placed among the timeline entries of the given timestamp
+    private static EmailMetadata probe(LocalDateTime timestamp, String messageId) {
+        EmailMetadata probe = new EmailMetadata();
+        probe.setTimestamp(timestamp);
+        probe.setMessageId(messageId);
+        return probe;
+    }
+
+    private void mark(EmailMetadata metadata, int ordinal) {
+        live.set(ordinal);
+        byDate.add(metadata);
+        byPriorityOrder.add(metadata);
+        if (metadata.isRead()) read.set(ordinal);
+        if (metadata.isStarred()) starred.set(ordinal);
+        if (metadata.hasAttachments()) attachments.set(ordinal);
+        if (metadata.getPriority() != null) {
+            byPriority.computeIfAbsent(metadata.getPriority(), p -> new BitSet()).set(ordinal);
+        }
+        if (metadata.getFolder() != null) {
+            byFolder.computeIfAbsent(metadata.getFolder(), f -> new BitSet()).set(ordinal);
+            count(metadata.getFolder(), 1, metadata.isRead() ? 0 : 1);
+        }
+        if (metadata.getTimestamp() != null) {
+            dayCounts.merge(metadata.getTimestamp().toLocalDate(), 1, MailboxIndex::add);
+        }
+    }
+
+    private void unmark(EmailMetadata metadata, int ordinal) {
+        live.clear(ordinal);
+        byDate.remove(metadata);
+        byPriorityOrder.remove(metadata);
+        read.clear(ordinal);
+        starred.clear(ordinal);
+        attachments.clear(ordinal);
+        if (metadata.getPriority() != null) {
+            clear(byPriority, metadata.getPriority(), ordinal);
+        }
+        if (metadata.getFolder() != null) {
+            clear(byFolder, metadata.getFolder(), ordinal);
+            count(metadata.getFolder(), -1, metadata.isRead() ? 0 : -1);
+        }
+        if (metadata.getTimestamp() != null) {
+            dayCounts.merge(metadata.getTimestamp().toLocalDate(), -1, MailboxIndex::add);
+        }
+    }
+
+    private void count(String folder, int total, int unread) {
+        FolderCounts counts = folderCounts.getOrDefault(folder, FolderCounts.EMPTY).plus(total, unread);
+        if (counts.total() == 0) {
+            folderCounts.remove(folder);
+        } else {
+            folderCounts.put(folder, counts);
+        }
+    }
+
+    // Clears one ordinal, dropping the bitmap once it is empty (e.g. a deleted folder)
+    private static <K> void clear(Map<K, BitSet> bitmaps, K key, int ordinal) {
+        BitSet bits = bitmaps.get(key);
+        if (bits != null) {
+            bits.clear(ordinal);
+            if (bits.isEmpty()) {
+                bitmaps.remove(key);
+            }
+        }
+    }
+
+    // Number of emails in a folder, and how many of them are unread
+    public record FolderCounts(int total, int unread) {
+        static final FolderCounts EMPTY = new FolderCounts(0, 0);
+
+        FolderCounts plus(int total, int unread) {
+            return new FolderCounts(this.total + total, this.unread + unread);
+        }
+    }
+
+    // Entries sorted in one order, overall and per folder
+    private static class Ordering {
+        private final Comparator<MailItem> order;
+        private final TreeSet<EmailMetadata> all;
+        private final Map<String, TreeSet<EmailMetadata>> folders = new HashMap<>();
+
+        private Ordering(Comparator<MailItem> order) {
+            this.order = order;
+            this.all = new TreeSet<>(order);
+        }
+
+        private void add(EmailMetadata metadata) {
+            all.add(metadata);
+            if (metadata.getFolder() != null) {
+                folders.computeIfAbsent(metadata.getFolder(), f -> new TreeSet<>(order)).add(metadata);
+            }
+        }
+
+        private void remove(EmailMetadata metadata) {
+            all.remove(metadata);
+            TreeSet<EmailMetadata> folderEntries = metadata.getFolder() == null ? null : folders.get(metadata.getFolder());
+            if (folderEntries != null && folderEntries.remove(metadata) && folderEntries.isEmpty()) {
+                folders.remove(metadata.getFolder());
+            }
+        }
+    }
+
+    // Drops a count from its map once it reaches zero
+    private static Integer add(Integer a, Integer b) {
+        int sum = a + b;
+        return sum == 0 ? null : sum;
+    }
+}
@@ -0,0 +1,226 @@
+package com.mail.backend.repository;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mail.backend.encryption.EncryptedFilesManager;
+import com.mail.backend.model.EmailMetadata;
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Persists each user's MailboxIndex next to their mailbox.
+// The index is stored as an encrypted snapshot plus an append-only encrypted journal of
+// changes made since that snapshot; the journal is folded into a new snapshot once it grows.
+@Slf4j
+@Repository
+public class MailboxIndexRepository {
+
+    private static final String SNAPSHOT_FILE = ".mailbox.idx";
+    private static final String JOURNAL_FILE = ".mailbox.journal";
+    private static final int MIN_COMPACTION_THRESHOLD = 500;
+    private static final int BATCH_SNAPSHOT_THRESHOLD = 200;
+
+    @Value("${mail.msg-root:data/emails}")
+    private String msgRoot;
+    @Autowired
+    private EncryptedFilesManager encryptedFilesManager;
+    private final ObjectMapper objectMapper;
+    private final Map<String, MailboxIndex> indexes = new ConcurrentHashMap<>();
+    // One lock per user, so a slow load or reconcile only holds up that user's callers
+    private final Map<String, Object> loadLocks = new ConcurrentHashMap<>();
+
+    public MailboxIndexRepository() {
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+    }
+
+    @Data
+    public static class JournalRecord {
+        private String op; // put, remove
+        private String messageId;
+        private EmailMetadata entry;
+    }
+
+    // Returns the user's index, loading it from disk on first use.
+    // onLoad runs once per process for each user, before the index is shared with other callers.
+    public MailboxIndex getIndex(String username, Consumer<MailboxIndex> onLoad) {
+        MailboxIndex index = indexes.get(username);
+        if (index == null) {
+            synchronized (loadLocks.computeIfAbsent(username, user -> new Object())) {
+                index = indexes.get(username);
+                if (index == null) {
+                    index = load(username);
+                    onLoad.accept(index);
+                    indexes.put(username, index);
+                }
+            }
+        }
+        return index;
+    }
+
+    public void upsert(String username, MailboxIndex index, EmailMetadata metadata) {
+        JournalRecord record = new JournalRecord();
+        record.setOp("put");
+        record.setMessageId(metadata.getMessageId());
+        record.setEntry(metadata);
+
+        synchronized (index) {
+            index.put(metadata);
+            append(username, index, List.of(record));
+        }
+    }
+
+    public void remove(String username, MailboxIndex index, String messageId) {
+        JournalRecord record = new JournalRecord();
+        record.setOp("remove");
+        record.setMessageId(messageId);
+
+        synchronized (index) {
+            if (index.remove(messageId) != null) {
+                append(username, index, List.of(record));
+            }
+        }
+    }
+
+    // Applies the index changes of a bulk operation together: one journal write, or a new snapshot
+    // when the batch is large enough that the snapshot is the smaller record
+    public void applyBatch(String username, MailboxIndex index, List<EmailMetadata> puts, List<String> removals) {
+        List<JournalRecord> records = new ArrayList<>();
+        synchronized (index) {
+            for (EmailMetadata metadata : puts) {
+                index.put(metadata);
+                JournalRecord record = new JournalRecord();
+                record.setOp("put");
+                record.setMessageId(metadata.getMessageId());
+                record.setEntry(metadata);
+                records.add(record);
+            }
+            for (String messageId : removals) {
+                if (index.remove(messageId) != null) {
+                    JournalRecord record = new JournalRecord();
+                    record.setOp("remove");
+                    record.setMessageId(messageId);
+                    records.add(record);
+                }
+            }
+
+            if (records.size() > BATCH_SNAPSHOT_THRESHOLD) {
+                writeSnapshot(username, index);
+            } else if (!records.isEmpty()) {
+                append(username, index, records);
+            }
+        }
+    }
+
+    // Moves every entry of a folder to its new name, recorded with one snapshot rather than a journal record each
+    public void renameFolder(String username, MailboxIndex index, String oldName, String newName) {
+        synchronized (index) {
+            for (EmailMetadata metadata : index.inFolder(oldName)) {
+                index.put(metadata.movedTo(newName));
+            }
+            writeSnapshot(username, index);
+        }
+    }
+
+    // Writes the whole index as a new snapshot and clears the journal
+    public void writeSnapshot(String username, MailboxIndex index) {
+        synchronized (index) {
+            try {
+                Path userRoot = Paths.get(msgRoot, username);
+                Files.createDirectories(userRoot);
+                String json = objectMapper.writeValueAsString(index.all());
+
+                Path tmp = userRoot.resolve(SNAPSHOT_FILE + ".tmp");
+                Files.writeString(tmp, encryptedFilesManager.encryptToString(json));
+                Files.move(tmp, userRoot.resolve(SNAPSHOT_FILE),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Files.deleteIfExists(userRoot.resolve(JOURNAL_FILE));
+                index.journalLength = 0;
+
+                log.info("Wrote mailbox index snapshot for {} ({} entries)", username, index.size());
+            } catch (Exception e) {
+                log.error("Failed to write mailbox index snapshot for {}: {}", username, e.getMessage());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void flushAll() {
+        indexes.forEach((username, index) -> {
+            if (index.journalLength > 0) {
+                writeSnapshot(username, index);
+            }
+        });
+    }
+
+    private void append(String username, MailboxIndex index, List<JournalRecord> records) {
+        try {
+            Path journal = Paths.get(msgRoot, username, JOURNAL_FILE);
+            StringBuilder lines = new StringBuilder();
+            for (JournalRecord record : records) {
+                lines.append(encryptedFilesManager.encryptToString(objectMapper.writeValueAsString(record)))
+                        .append(System.lineSeparator());
+            }
+            Files.writeString(journal, lines, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            index.journalLength += records.size();
+        } catch (Exception e) {
+            log.error("Failed to journal index change for {}: {}", username, e.getMessage());
+        }
+
+        if (index.journalLength > Math.max(MIN_COMPACTION_THRESHOLD, index.size())) {
+            writeSnapshot(username, index);
+        }
+    }
+
+    private MailboxIndex load(String username) {
+        MailboxIndex index = new MailboxIndex();
+        Path userRoot = Paths.get(msgRoot, username);
+
+        Path snapshot = userRoot.resolve(SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try {
+                String json = encryptedFilesManager.decryptFromString(Files.readString(snapshot));
+                List<EmailMetadata> entries = objectMapper.readValue(json, new TypeReference<List<EmailMetadata>>() {});
+                entries.forEach(index::put);
+            } catch (Exception e) {
+                log.error("Unreadable mailbox index snapshot for {}, it will be rebuilt: {}", username, e.getMessage());
+            }
+        }
+
+        Path journal = userRoot.resolve(JOURNAL_FILE);
+        if (Files.exists(journal)) {
+            try {
+                for (String line : Files.readAllLines(journal)) {
+                    if (line.isBlank()) continue;
+                    try {
+                        JournalRecord record = objectMapper.readValue(encryptedFilesManager.decryptFromString(line), JournalRecord.class);
+                        if ("put".equals(record.getOp())) {
+                            index.put(record.getEntry());
+                        } else {
+                            index.remove(record.getMessageId());
+                        }
+                        index.journalLength++;
+                    } catch (Exception e) {
+                        // A torn last line after a crash is expected; the folder scan repairs what it lost
+                        log.warn("Skipping unreadable mailbox journal record for {}", username);
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Failed to read mailbox journal for {}: {}", username, e.getMessage());
+            }
+        }
+        return index;
+    }
+}
@@ -0,0 +1,194 @@
+package com.mail.backend.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.util.*;
+
+// Decrypted message records (parsed headers and bodies), kept in memory so that a message opened, then
+// starred, then moved is decrypted once. Keyed by the record's file path and grouped per user.
+// Each user's records are evicted least recently used first once they pass the per-user budget; past the
+// global budget, the least recently active user gives up records first. Users idle for longer than
+// mail.cache.idle-ms are dropped altogether. Plaintext is only ever held on the heap, never spilled to disk.
+// The repository writes through it and invalidates on delete, so it never serves a record older than the file.
+// A record read from disk is only cached if its path wasn't written meanwhile: each write bumps the version of the
+// path's stripe, and a reader that saw another version before it read may hold the bytes the write replaced.
+@Slf4j
+@Component
+public class MessageCache {
+
+    // Rough heap cost of an entry besides its text
+    private static final long ENTRY_OVERHEAD = 256;
+    private static final int VERSION_STRIPES = 1024;
+
+    @Value("${mail.cache.max-bytes:67108864}")
+    private long maxBytes;
+    @Value("${mail.cache.user-max-bytes:8388608}")
+    private long userMaxBytes;
+    @Value("${mail.cache.idle-ms:600000}")
+    private long idleMillis;
+
+    // Access ordered, so the least recently active user comes first
+    private final LinkedHashMap<String, UserCache> users = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private final long[] versions = new long[VERSION_STRIPES];
+    // Bumped when a user's records are dropped all at once; part of every path's version
+    private long epoch;
+    private long stalePutsSkipped;
+
+    private static class UserCache {
+        // Access ordered: least recently used record first
+        private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long bytes;
+        private long lastAccess;
+    }
+
+    private record Entry(Object value, long weight) {
+    }
+
+    // The cached record at path, or null; value is either a parsed header or a body string
+    public synchronized <T> T get(String username, Path path, Class<T> type) {
+        UserCache user = users.get(username);
+        Entry entry = user == null ? null : user.entries.get(path);
+        if (entry == null || !type.isInstance(entry.value())) {
+            misses++;
+            return null;
+        }
+        user.lastAccess = System.currentTimeMillis();
+        hits++;
+        return type.cast(entry.value());
+    }
+
+    // Version of a path, to be taken before reading its file and handed back to putIfUnchanged
+    public synchronized long version(Path path) {
+        return versions[stripeOf(path)] + epoch;
+    }
+
+    // Caches a record read from disk, unless the path was written since version was taken
+    public synchronized void putIfUnchanged(String username, Path path, Object value, int textLength, long version) {
+        if (version(path) != version) {
+            stalePutsSkipped++;
+            return;
+        }
+        store(username, path, value, textLength);
+    }
+
+    // Caches a record just written
+    public synchronized void put(String username, Path path, Object value, int textLength) {
+        versions[stripeOf(path)]++;
+        store(username, path, value, textLength);
+    }
+
+    private void store(String username, Path path, Object value, int textLength) {
+        long weight = ENTRY_OVERHEAD + 2L * textLength;
+        if (weight > userMaxBytes) {
+            invalidate(username, path);
+            return;
+        }
+        UserCache user = users.computeIfAbsent(username, u -> new UserCache());
+        user.lastAccess = System.currentTimeMillis();
+        Entry previous = user.entries.put(path, new Entry(value, weight));
+        long delta = weight - (previous == null ? 0 : previous.weight());
+        user.bytes += delta;
+        totalBytes += delta;
+
+        while (user.bytes > userMaxBytes) {
+            evictOldest(username, user);
+        }
+        Iterator<Map.Entry<String, UserCache>> it = users.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, UserCache> least = it.next();
+            while (totalBytes > maxBytes && !least.getValue().entries.isEmpty()) {
+                evictOldest(least.getKey(), least.getValue());
+            }
+            if (least.getValue().entries.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void invalidate(String username, Path path) {
+        versions[stripeOf(path)]++;
+        UserCache user = users.get(username);
+        if (user == null) {
+            return;
+        }
+        Entry removed = user.entries.remove(path);
+        if (removed != null) {
+            user.bytes -= removed.weight();
+            totalBytes -= removed.weight();
+        }
+    }
+
+    // Keeps a record cached after its file was renamed
+    public synchronized void rename(String username, Path from, Path to) {
+        versions[stripeOf(from)]++;
+        invalidate(username, to);
+        UserCache user = users.get(username);
+        Entry entry = user == null ? null : user.entries.remove(from);
+        if (entry != null) {
+            user.entries.put(to, entry);
+        }
+    }
+
+    // Drops everything cached for a user, e.g. after a whole folder was renamed on disk
+    public synchronized void invalidateUser(String username) {
+        epoch++;
+        UserCache user = users.remove(username);
+        if (user != null) {
+            totalBytes -= user.bytes;
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${mail.cache.sweep-ms:60000}")
+    public synchronized void evictIdle() {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        Iterator<UserCache> it = users.values().iterator();
+        while (it.hasNext()) {
+            UserCache user = it.next();
+            if (user.lastAccess < cutoff) {
+                totalBytes -= user.bytes;
+                evictions += user.entries.size();
+                it.remove();
+            }
+        }
+        if (hits + misses > 0) {
+            log.info("Message cache: {}", stats());
+        }
+    }
+
+    // Hit rate, evictions and memory used against the budget - logged for operators
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("hitRate", hits + misses == 0 ? 0.0 : (double) hits / (hits + misses));
+        stats.put("evictions", evictions);
+        stats.put("users", users.size());
+        stats.put("entries", users.values().stream().mapToInt(user -> user.entries.size()).sum());
+        stats.put("bytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("stalePutsSkipped", stalePutsSkipped);
+        return stats;
+    }
+
+    private static int stripeOf(Path path) {
+        return Math.floorMod(path.hashCode(), VERSION_STRIPES);
+    }
+
+    private void evictOldest(String username, UserCache user) {
+        Iterator<Map.Entry<Path, Entry>> it = user.entries.entrySet().iterator();
+        Entry oldest = it.next().getValue();
+        it.remove();
+        user.bytes -= oldest.weight();
+        totalBytes -= oldest.weight();
+        evictions++;
+        log.debug("Evicted a cached message record of {}", username);
+    }
+}
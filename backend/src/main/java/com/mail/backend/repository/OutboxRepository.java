@@ -0,0 +1,211 @@
+package com.mail.backend.repository;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.mail.backend.encryption.EncryptedFilesManager;
+import com.mail.backend.model.Email;
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Repository;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.util.*;
+
+// Durable queue of sent emails still to be delivered.
+// The outbox is an append-only encrypted journal: a "send" record holds the email and its recipients, and a
+// "delivered" or "failed" record settles one recipient. Replaying it after a restart gives back every recipient
+// not yet settled. Once most of the journal is settled it is rewritten with only the pending sends.
+@Slf4j
+@Repository
+public class OutboxRepository {
+
+    private static final String JOURNAL_FILE = "outbox.journal";
+    private static final int MIN_COMPACTION_THRESHOLD = 1000;
+
+    @Value("${mail.outbox-root:data/outbox}")
+    private String outboxRoot;
+    @Autowired
+    private EncryptedFilesManager encryptedFilesManager;
+    private final ObjectMapper objectMapper;
+
+    // Sends with recipients still to settle, by messageId
+    private final Map<String, Entry> pending = new LinkedHashMap<>();
+    private int journalLength;
+
+    public OutboxRepository() {
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.registerModule(new JavaTimeModule());
+    }
+
+    @Data
+    public static class OutboxRecord {
+        private String op; // send, delivered, failed
+        private String messageId;
+        private String username; // the sender
+        private Email email;
+        private List<String> recipients;
+        private String recipient;
+        private LocalDateTime queuedAt;
+        private List<String> forwardPath; // for a forward: the original sender, then each user that forwarded it
+    }
+
+    // A queued email and the recipients it still has to reach.
+    // The recipients are settled by the workers and only ever read under the repository's lock.
+    @Getter
+    @RequiredArgsConstructor
+    public static class Entry {
+        private final String messageId;
+        private final String username;
+        private final Email email;
+        private final LocalDateTime queuedAt;
+        @Getter(AccessLevel.NONE)
+        private final Set<String> remaining;
+        private final List<String> forwardPath;
+    }
+
+    // A send, with a copy of the recipients it had left when it was queued or loaded - safe to read without the lock
+    public record Queued(Entry entry, List<String> recipients) {
+    }
+
+    // Reads the journal back, returning the sends that still have recipients to settle
+    public synchronized List<Queued> load() {
+        pending.clear();
+        journalLength = 0;
+        Path journal = Paths.get(outboxRoot, JOURNAL_FILE);
+        if (Files.exists(journal)) {
+            try {
+                for (String line : Files.readAllLines(journal)) {
+                    if (line.isBlank()) continue;
+                    try {
+                        replay(objectMapper.readValue(encryptedFilesManager.decryptFromString(line), OutboxRecord.class));
+                        journalLength++;
+                    } catch (Exception e) {
+                        // A torn last line after a crash is expected; a send it held was never acknowledged
+                        log.warn("Skipping unreadable outbox record");
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Failed to read the outbox journal: {}", e.getMessage());
+            }
+        }
+        return pending.values().stream().map(OutboxRepository::queued).toList();
+    }
+
+    // Queues an email for its recipients; once this returns the send survives a restart.
+    // forwardPath is empty for an email a user sent; for one a filter forwarded it lists the original sender,
+    // then each user that forwarded it.
+    public synchronized Queued enqueue(String username, Email email, List<String> recipients,
+                                       List<String> forwardPath) throws IOException {
+        OutboxRecord record = new OutboxRecord();
+        record.setOp("send");
+        record.setMessageId(email.getMessageId());
+        record.setUsername(username);
+        record.setEmail(email);
+        record.setRecipients(recipients);
+        record.setQueuedAt(LocalDateTime.now());
+        record.setForwardPath(forwardPath);
+
+        append(record);
+        return queued(replay(record));
+    }
+
+    // Settles one recipient of a send, delivered or given up on
+    public synchronized void complete(String messageId, String recipient, boolean delivered) {
+        OutboxRecord record = new OutboxRecord();
+        record.setOp(delivered ? "delivered" : "failed");
+        record.setMessageId(messageId);
+        record.setRecipient(recipient);
+        try {
+            append(record);
+        } catch (IOException e) {
+            // The recipient stays in the journal and is delivered again after a restart
+            log.error("Failed to record outbox {} of email {} to {}: {}", record.getOp(), messageId, recipient, e.getMessage());
+        }
+        replay(record);
+
+        if (journalLength > Math.max(MIN_COMPACTION_THRESHOLD, 4 * pendingRecipients())) {
+            compact();
+        }
+    }
+
+    public synchronized int pendingRecipients() {
+        return pending.values().stream().mapToInt(entry -> entry.remaining.size()).sum();
+    }
+
+    // When the oldest unsettled send was queued, or null when the outbox is empty
+    public synchronized LocalDateTime oldestQueuedAt() {
+        return pending.values().stream().map(Entry::getQueuedAt).min(Comparator.naturalOrder()).orElse(null);
+    }
+
+    private Entry replay(OutboxRecord record) {
+        if ("send".equals(record.getOp())) {
+            Entry entry = new Entry(record.getMessageId(), record.getUsername(), record.getEmail(),
+                    record.getQueuedAt(), new LinkedHashSet<>(record.getRecipients()),
+                    record.getForwardPath() == null ? List.of() : List.copyOf(record.getForwardPath()));
+            pending.put(record.getMessageId(), entry);
+            return entry;
+        }
+        Entry entry = pending.get(record.getMessageId());
+        if (entry != null) {
+            entry.remaining.remove(record.getRecipient());
+            if (entry.remaining.isEmpty()) {
+                pending.remove(record.getMessageId());
+            }
+        }
+        return entry;
+    }
+
+    private static Queued queued(Entry entry) {
+        return new Queued(entry, List.copyOf(entry.remaining));
+    }
+
+    private void append(OutboxRecord record) throws IOException {
+        Path root = Paths.get(outboxRoot);
+        Files.createDirectories(root);
+        String line;
+        try {
+            line = encryptedFilesManager.encryptToString(objectMapper.writeValueAsString(record));
+        } catch (Exception e) {
+            throw new IOException("Failed to encrypt outbox record: " + e.getMessage(), e);
+        }
+        Files.writeString(root.resolve(JOURNAL_FILE), line + System.lineSeparator(),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        journalLength++;
+    }
+
+    // Rewrites the journal with one send record per pending email, listing only its unsettled recipients
+    private void compact() {
+        try {
+            Path root = Paths.get(outboxRoot);
+            StringBuilder lines = new StringBuilder();
+            for (Entry entry : pending.values()) {
+                OutboxRecord record = new OutboxRecord();
+                record.setOp("send");
+                record.setMessageId(entry.getMessageId());
+                record.setUsername(entry.getUsername());
+                record.setEmail(entry.getEmail());
+                record.setRecipients(new ArrayList<>(entry.remaining));
+                record.setQueuedAt(entry.getQueuedAt());
+                record.setForwardPath(entry.getForwardPath());
+                lines.append(encryptedFilesManager.encryptToString(objectMapper.writeValueAsString(record)))
+                        .append(System.lineSeparator());
+            }
+
+            Path tmp = root.resolve(JOURNAL_FILE + ".tmp");
+            Files.writeString(tmp, lines, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE, StandardOpenOption.DSYNC);
+            Files.move(tmp, root.resolve(JOURNAL_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journalLength = pending.size();
+            log.info("Compacted the outbox journal ({} pending emails)", pending.size());
+        } catch (Exception e) {
+            log.error("Failed to compact the outbox journal: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.mail.backend.repository;
+
+import java.util.*;
+
+// In-memory inverted index of one user's mailbox: for each searchable field, token -> messageIds.
+// Tokens are lower-cased runs of letters and digits; a query token matches every indexed token it is a prefix of.
+public class SearchIndex {
+    public static final String SUBJECT = "subject";
+    public static final String BODY = "body";
+    public static final String FROM = "from";
+    public static final String TO = "to";
+    public static final List<String> FIELDS = List.of(SUBJECT, BODY, FROM, TO);
+
+    // field -> token -> messageIds
+    private final Map<String, TreeMap<String, Set<String>>> postings = new HashMap<>();
+    // messageId -> field -> tokens, needed to take a message back out of the postings
+    private final Map<String, Map<String, Set<String>>> documents = new HashMap<>();
+
+    // Set when the index changed since it was last written to disk
+    volatile boolean dirty;
+    // When the snapshot this index was loaded from was taken (epoch millis), 0 when there was none
+    volatile long snapshotTakenAt;
+
+    public SearchIndex() {
+        for (String field : FIELDS) {
+            postings.put(field, new TreeMap<>());
+        }
+    }
+
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return tokens;
+        }
+        for (String token : text.toLowerCase().split("[^\\p{L}\\p{N}]+")) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    // Replaces the tokens of a single field of a message
+    public synchronized void putField(String messageId, String field, String text) {
+        Map<String, Set<String>> document = documents.computeIfAbsent(messageId, id -> new HashMap<>());
+        Set<String> tokens = tokenize(text);
+        Set<String> previous = document.get(field);
+        if (tokens.equals(previous)) {
+            return;
+        }
+        if (previous != null) {
+            unpost(messageId, field, previous);
+        }
+        document.put(field, tokens);
+        post(messageId, field, tokens);
+        dirty = true;
+    }
+
+    public synchronized void remove(String messageId) {
+        Map<String, Set<String>> document = documents.remove(messageId);
+        if (document == null) {
+            return;
+        }
+        document.forEach((field, tokens) -> unpost(messageId, field, tokens));
+        dirty = true;
+    }
+
+    public synchronized boolean contains(String messageId) {
+        return documents.containsKey(messageId);
+    }
+
+    public synchronized Set<String> ids() {
+        return new HashSet<>(documents.keySet());
+    }
+
+    // Messages whose field (or any field, when field is null) contains every token of the query
+    public synchronized Set<String> search(String field, String query) {
+        Set<String> result = null;
+        for (String token : tokenize(query)) {
+            Set<String> matches = new HashSet<>();
+            for (String f : field == null ? FIELDS : List.of(field)) {
+                for (Set<String> ids : postings.get(f).subMap(token, token + Character.MAX_VALUE).values()) {
+                    matches.addAll(ids);
+                }
+            }
+            if (result == null) {
+                result = matches;
+            } else {
+                result.retainAll(matches);
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result == null ? new HashSet<>() : result;
+    }
+
+    // Upper bound on the number of messages search(field, query) returns, without building the result:
+    // the smallest, over the query tokens, of the posting lists that token would union
+    public synchronized int estimate(String field, String query) {
+        int estimate = -1;
+        for (String token : tokenize(query)) {
+            int postingsSize = 0;
+            for (String f : field == null ? FIELDS : List.of(field)) {
+                for (Set<String> ids : postings.get(f).subMap(token, token + Character.MAX_VALUE).values()) {
+                    postingsSize += ids.size();
+                }
+            }
+            estimate = estimate < 0 ? postingsSize : Math.min(estimate, postingsSize);
+        }
+        return Math.max(estimate, 0);
+    }
+
+    // Whether one message matches search(field, query), checked against its own tokens only
+    public synchronized boolean matches(String messageId, String field, String query) {
+        Map<String, Set<String>> document = documents.get(messageId);
+        Set<String> queryTokens = tokenize(query);
+        if (document == null || queryTokens.isEmpty()) {
+            return false;
+        }
+        for (String token : queryTokens) {
+            boolean found = false;
+            for (String f : field == null ? FIELDS : List.of(field)) {
+                Set<String> tokens = document.get(f);
+                if (tokens != null && tokens.stream().anyMatch(t -> t.startsWith(token))) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    synchronized Map<String, Map<String, Set<String>>> documents() {
+        Map<String, Map<String, Set<String>>> copy = new HashMap<>();
+        documents.forEach((id, fields) -> copy.put(id, new HashMap<>(fields)));
+        return copy;
+    }
+
+    synchronized void load(Map<String, Map<String, Set<String>>> stored) {
+        stored.forEach((id, fields) -> {
+            fields.keySet().retainAll(postings.keySet());
+            documents.put(id, fields);
+            fields.forEach((field, tokens) -> post(id, field, tokens));
+        });
+    }
+
+    private void post(String messageId, String field, Set<String> tokens) {
+        TreeMap<String, Set<String>> fieldPostings = postings.get(field);
+        for (String token : tokens) {
+            fieldPostings.computeIfAbsent(token, t -> new HashSet<>()).add(messageId);
+        }
+    }
+
+    private void unpost(String messageId, String field, Set<String> tokens) {
+        TreeMap<String, Set<String>> fieldPostings = postings.get(field);
+        for (String token : tokens) {
+            Set<String> ids = fieldPostings.get(token);
+            if (ids != null && ids.remove(messageId) && ids.isEmpty()) {
+                fieldPostings.remove(token);
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.mail.backend.repository;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mail.backend.encryption.EncryptedFilesManager;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Repository;
+
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// Persists each user's SearchIndex next to their mailbox as an encrypted snapshot.
+// Changed indexes are written in the background; whatever a crash loses is restored by the
+// reconcile step run when the index is loaded. The snapshot file's modification time is set to the moment
+// its content was taken, so that step can tell which messages were written after it.
+@Slf4j
+@Repository
+public class SearchIndexRepository {
+
+    private static final String SNAPSHOT_FILE = ".search.idx";
+
+    @Value("${mail.msg-root:data/emails}")
+    private String msgRoot;
+    @Autowired
+    private EncryptedFilesManager encryptedFilesManager;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Map<String, SearchIndex> indexes = new ConcurrentHashMap<>();
+    // Guards each user's first load; loading one user's index never waits on another's
+    private final Map<String, Object> loadLocks = new ConcurrentHashMap<>();
+
+    // Returns the user's index, loading it from disk on first use.
+    // onLoad runs once per process for each user, before the index is shared with other callers.
+    public SearchIndex getIndex(String username, Consumer<SearchIndex> onLoad) {
+        SearchIndex index = indexes.get(username);
+        if (index == null) {
+            synchronized (loadLocks.computeIfAbsent(username, user -> new Object())) {
+                index = indexes.get(username);
+                if (index == null) {
+                    index = load(username);
+                    onLoad.accept(index);
+                    indexes.put(username, index);
+                }
+            }
+        }
+        return index;
+    }
+
+    public void writeSnapshot(String username, SearchIndex index) {
+        try {
+            Map<String, Map<String, Set<String>>> documents;
+            long takenAt = System.currentTimeMillis();
+            synchronized (index) {
+                documents = index.documents();
+                index.dirty = false;
+            }
+            Path userRoot = Paths.get(msgRoot, username);
+            Files.createDirectories(userRoot);
+            String json = objectMapper.writeValueAsString(documents);
+
+            Path tmp = userRoot.resolve(SNAPSHOT_FILE + ".tmp");
+            Files.writeString(tmp, encryptedFilesManager.encryptToString(json));
+            Files.setLastModifiedTime(tmp, FileTime.fromMillis(takenAt));
+            Files.move(tmp, userRoot.resolve(SNAPSHOT_FILE),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+            log.info("Wrote search index snapshot for {} ({} emails)", username, documents.size());
+        } catch (Exception e) {
+            index.dirty = true;
+            log.error("Failed to write search index snapshot for {}: {}", username, e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    @Scheduled(fixedDelayString = "${mail.search-index-flush-ms:30000}")
+    public void flushAll() {
+        indexes.forEach((username, index) -> {
+            if (index.dirty) {
+                writeSnapshot(username, index);
+            }
+        });
+    }
+
+    private SearchIndex load(String username) {
+        SearchIndex index = new SearchIndex();
+        Path snapshot = Paths.get(msgRoot, username, SNAPSHOT_FILE);
+        if (Files.exists(snapshot)) {
+            try {
+                String json = encryptedFilesManager.decryptFromString(Files.readString(snapshot));
+                index.load(objectMapper.readValue(json, new TypeReference<Map<String, Map<String, Set<String>>>>() {}));
+                index.snapshotTakenAt = Files.getLastModifiedTime(snapshot).toMillis();
+            } catch (Exception e) {
+                log.error("Unreadable search index snapshot for {}, it will be rebuilt: {}", username, e.getMessage());
+            }
+        }
+        return index;
+    }
+}
@@ -2,6 +2,11 @@ package com.mail.backend.repository;
 
 import com.mail.backend.model.Users;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.util.Collection;
+import java.util.List;
 
 public interface UserRepository extends JpaRepository<Users,Integer> {
 
@@ -14,4 +19,11 @@ public interface UserRepository extends JpaRepository<Users,Integer> {
     Boolean existsByEmail(String email);
 
     void deleteById(Long id);
+
+    @Query("select u.username from Users u")
+    List<String> findAllUsernames();
+
+    // Which of the given usernames exist, in one query
+    @Query("select u.username from Users u where u.username in :usernames")
+    List<String> findExistingUsernames(@Param("usernames") Collection<String> usernames);
 }
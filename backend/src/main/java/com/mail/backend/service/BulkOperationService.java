@@ -0,0 +1,231 @@
+package com.mail.backend.service;
+
+import com.mail.backend.model.BulkResult;
+import com.mail.backend.model.EmailMetadata;
+import com.mail.backend.model.EmailSummary;
+import com.mail.backend.repository.EmailRepository;
+import com.mail.backend.repository.MailboxIndex;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs move / trash / restore / permanent delete over many messages at once.
+// All IDs are resolved against the mailbox index in one pass and grouped by source folder; each folder's
+// messages are handled in chunks on a small I/O pool. The file changes of each message are independent, and
+// the index changes of the whole batch are applied together at the end. Every ID gets its own result.
+@Slf4j
+@Service
+public class BulkOperationService {
+
+    // Messages of one folder handled by one task
+    private static final int CHUNK_SIZE = 32;
+
+    @Autowired
+    private EmailRepository emailRepository;
+
+    @Value("${mail.bulk-io-threads:4}")
+    private int ioThreads;
+    private ExecutorService ioPool;
+
+    @PostConstruct
+    void startPool() {
+        AtomicInteger threadCount = new AtomicInteger();
+        ioPool = Executors.newFixedThreadPool(ioThreads, runnable -> {
+            Thread thread = new Thread(runnable, "bulk-io-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stopPool() {
+        ioPool.shutdown();
+    }
+
+    // The file changes one operation makes to one message. Returns the message's new index entry
+    // (the same entry when nothing changed), or null when the message was deleted.
+    private interface Step {
+        EmailMetadata apply(String username, EmailMetadata entry) throws IOException;
+    }
+
+    // Outcome of one message: its entry now and whether that is a change, or why it failed
+    private record Outcome(String messageId, EmailMetadata entry, boolean changed, String error) {
+    }
+
+    public BulkResult move(String username, List<String> messageIds, String toFolder) {
+        if (toFolder.equals("trash")) {
+            return moveToTrash(username, messageIds);
+        }
+        return run(username, messageIds, "move to " + toFolder, (user, entry) -> {
+            if (entry.getFolder().equals(toFolder)) {
+                return entry;
+            }
+            emailRepository.renameHeader(user, entry.getMessageId(), entry.getFolder(), toFolder);
+            return entry.movedTo(toFolder);
+        });
+    }
+
+    // Moves to trash, recording when and from where, so the messages can be restored
+    public BulkResult moveToTrash(String username, List<String> messageIds) {
+        return run(username, messageIds, "move to trash", (user, entry) -> {
+            if (entry.getFolder().equals("trash")) {
+                return entry;
+            }
+            EmailSummary email = emailRepository.getSummary(user, entry.getFolder(), entry.getMessageId());
+
+            // Restoring goes back to the folder the email was deleted from, unless the header already names one
+            if (email.getOriginalFolder() == null || email.getOriginalFolder().isEmpty()) {
+                email.setOriginalFolder(entry.getFolder());
+            }
+            email.setFolder("trash");
+            email.setDeletedAt(LocalDateTime.now());
+
+            emailRepository.renameHeader(user, entry.getMessageId(), entry.getFolder(), "trash");
+            emailRepository.writeSummary(user, email);
+            return EmailMetadata.of(email);
+        });
+    }
+
+    // Moves emails back to the folder they were in before deletion
+    public BulkResult restore(String username, List<String> messageIds) {
+        return run(username, messageIds, "restore", (user, entry) -> {
+            if (!entry.getFolder().equals("trash")) {
+                throw new IOException("Email is not in trash");
+            }
+            EmailSummary email = emailRepository.getSummary(user, "trash", entry.getMessageId());
+
+            // Determine restore folder - use originalFolder if available, otherwise default to inbox
+            String restoreFolder = email.getOriginalFolder();
+            if (restoreFolder == null || restoreFolder.isEmpty() || restoreFolder.equals("trash")) {
+                restoreFolder = "inbox";
+                log.warn("No original folder found for email {}. Restoring to inbox", entry.getMessageId());
+            }
+            email.setFolder(restoreFolder);
+            email.setDeletedAt(null);
+            email.setOriginalFolder(null);
+
+            emailRepository.renameHeader(user, entry.getMessageId(), "trash", restoreFolder);
+            emailRepository.writeSummary(user, email);
+            return EmailMetadata.of(email);
+        });
+    }
+
+    public BulkResult permanentlyDelete(String username, List<String> messageIds) {
+        return run(username, messageIds, "permanent delete", (user, entry) -> {
+            if (!emailRepository.deleteFiles(user, entry.getFolder(), entry.getMessageId())) {
+                throw new IOException("Failed to delete email from file system: " + entry.getMessageId());
+            }
+            return null;
+        });
+    }
+
+    // Sets the read and / or starred flag (null leaves a flag as it is).
+    // The index already knows every message's flags, so messages that have them are not read or rewritten.
+    public BulkResult setFlags(String username, List<String> messageIds, Boolean read, Boolean starred) {
+        return run(username, messageIds, "flag update", (user, entry) -> {
+            if ((read == null || entry.isRead() == read) && (starred == null || entry.isStarred() == starred)) {
+                return entry;
+            }
+            EmailSummary email = emailRepository.getSummary(user, entry.getFolder(), entry.getMessageId());
+            if (read != null) email.setRead(read);
+            if (starred != null) email.setStarred(starred);
+
+            emailRepository.writeSummary(user, email);
+            return EmailMetadata.of(email);
+        });
+    }
+
+    // Marks every unread email of a folder as read; only the unread ones are touched
+    public BulkResult markFolderRead(String username, String folder) {
+        List<String> unread = emailRepository.getIndex(username).inFolder(folder).stream()
+                .filter(entry -> !entry.isRead())
+                .map(EmailMetadata::getMessageId)
+                .toList();
+        return setFlags(username, unread, true, null);
+    }
+
+    private BulkResult run(String username, List<String> messageIds, String operation, Step step) {
+        MailboxIndex index = emailRepository.getIndex(username);
+
+        // Resolve every ID in one pass; an ID the index doesn't know is looked up by file name (no decryption)
+        Map<String, Outcome> outcomes = new HashMap<>();
+        Map<String, List<EmailMetadata>> byFolder = new LinkedHashMap<>();
+        for (String messageId : new LinkedHashSet<>(messageIds)) {
+            EmailMetadata entry = index.get(messageId);
+            if (entry == null && emailRepository.locate(username, messageId) != null) {
+                entry = index.get(messageId);
+            }
+            if (entry == null) {
+                outcomes.put(messageId, new Outcome(messageId, null, false, "Email not found: " + messageId));
+            } else {
+                byFolder.computeIfAbsent(entry.getFolder(), folder -> new ArrayList<>()).add(entry);
+            }
+        }
+
+        // Each folder's messages in chunks, on the I/O pool - a single chunk runs on the calling thread
+        List<List<EmailMetadata>> chunks = new ArrayList<>();
+        for (List<EmailMetadata> folderEntries : byFolder.values()) {
+            for (int from = 0; from < folderEntries.size(); from += CHUNK_SIZE) {
+                chunks.add(folderEntries.subList(from, Math.min(from + CHUNK_SIZE, folderEntries.size())));
+            }
+        }
+        List<CompletableFuture<List<Outcome>>> tasks = new ArrayList<>();
+        for (List<EmailMetadata> chunk : chunks) {
+            tasks.add(chunks.size() == 1
+                    ? CompletableFuture.completedFuture(applyAll(username, chunk, step))
+                    : CompletableFuture.supplyAsync(() -> applyAll(username, chunk, step), ioPool));
+        }
+
+        // The index changes of the whole batch, applied once
+        List<EmailMetadata> puts = new ArrayList<>();
+        List<String> removals = new ArrayList<>();
+        for (CompletableFuture<List<Outcome>> task : tasks) {
+            for (Outcome outcome : task.join()) {
+                outcomes.put(outcome.messageId(), outcome);
+                if (!outcome.changed()) {
+                    continue;
+                }
+                if (outcome.entry() == null) {
+                    removals.add(outcome.messageId());
+                } else {
+                    puts.add(outcome.entry());
+                }
+            }
+        }
+        emailRepository.applyIndexBatch(username, puts, removals);
+
+        BulkResult result = new BulkResult();
+        for (String messageId : messageIds) {
+            Outcome outcome = outcomes.get(messageId);
+            result.add(new BulkResult.Item(messageId, outcome.error() == null,
+                    outcome.entry() == null ? null : outcome.entry().getFolder(), outcome.error()));
+        }
+        log.info("Bulk {} for {}: {} succeeded, {} failed", operation, username, result.getSucceeded(), result.getFailed());
+        return result;
+    }
+
+    private List<Outcome> applyAll(String username, List<EmailMetadata> entries, Step step) {
+        List<Outcome> outcomes = new ArrayList<>(entries.size());
+        for (EmailMetadata entry : entries) {
+            try {
+                EmailMetadata updated = step.apply(username, entry);
+                outcomes.add(new Outcome(entry.getMessageId(), updated, updated != entry, null));
+            } catch (Exception e) {
+                log.warn("Bulk operation failed for email {}: {}", entry.getMessageId(), e.getMessage());
+                outcomes.add(new Outcome(entry.getMessageId(), null, false, e.getMessage()));
+            }
+        }
+        return outcomes;
+    }
+}
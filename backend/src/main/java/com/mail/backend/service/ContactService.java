@@ -21,7 +21,7 @@ public class ContactService {
     @Autowired
     private ContactRepository contactRepository;
     @Autowired
-    private UserService userService;
+    private UserDirectoryService userDirectoryService;
 
     private ContactSortStrategy getContactSortStrategy(String sortBy) {
         if (sortBy == null) {
@@ -55,14 +55,10 @@ public class ContactService {
         if (contact.getEmail() == null || contact.getEmail().isEmpty()) {
             throw new IllegalArgumentException("Contact emails cannot be empty");
         }
-        if (!userService.existsByUsername(username)) {
+        if (!userDirectoryService.exists(username)) {
             throw new IllegalArgumentException("can't save contact for a non-existing user");
         }
-        contact.getEmail().forEach(email -> {
-            String user = email.trim().split("@")[0];
-            if (!userService.existsByUsername(user))
-                throw new IllegalArgumentException("No user exists with that email");
-        });
+        requireExistingUsers(contact.getEmail());
 
         //Generate ID for the contact if not provided
         if (contact.getId() == null) {
@@ -81,14 +77,10 @@ public class ContactService {
         if (!contactRepository.contactExists(username, contactId)) {
             throw new IOException("Contact not found: " + contactId);
         }
-        if (!userService.existsByUsername(username)) {
+        if (!userDirectoryService.exists(username)) {
             throw new IllegalArgumentException("can't save contact for a non-existing user");
         }
-        updatedContact.getEmail().forEach(email -> {
-            String user = email.trim().split("@")[0];
-            if (!userService.existsByUsername(user))
-                throw new IllegalArgumentException("No user exists with that email");
-        });
+        requireExistingUsers(updatedContact.getEmail());
 
         Contact existingContact = contactRepository.getContact(username, contactId);
         existingContact.setName(updatedContact.getName());
@@ -155,4 +147,11 @@ public class ContactService {
     public int getContactCount(String username) throws IOException {
         return contactRepository.listContacts(username).size();
     }
+
+    // All of a contact's addresses must belong to users; checked together in one lookup
+    private void requireExistingUsers(List<String> emails) {
+        List<String> users = emails.stream().map(email -> email.trim().split("@")[0]).toList();
+        if (!userDirectoryService.existing(users).containsAll(users))
+            throw new IllegalArgumentException("No user exists with that email");
+    }
 }
@@ -0,0 +1,70 @@
+package com.mail.backend.service;
+
+import com.mail.backend.model.Email;
+import com.mail.backend.repository.EmailRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+// Delivers a sent email into one recipient's inbox: their filters run on the copy, and it is encrypted and
+// written. The outbox workers call it for each recipient of a queued email.
+@Slf4j
+@Service
+public class DeliveryService {
+
+    @Autowired
+    private EmailRepository emailRepository;
+    @Autowired
+    private FilterService filterService;
+    @Autowired
+    private UserDirectoryService userDirectoryService;
+
+    // What happened to one recipient. A delivered copy may have been matched by a forwarding filter of the
+    // recipient; forwardTo then lists where it goes next.
+    public record Delivery(String recipient, String username, boolean delivered, boolean unknownUser,
+                           String error, Email copy, List<String> forwardTo) {
+    }
+
+    // Delivers one recipient's copy; never throws, a failure is reported in the outcome
+    public Delivery deliverTo(Email email, String recipient) {
+        String username = usernameOf(recipient);
+        try {
+            if (!userDirectoryService.exists(username)) {
+                return new Delivery(recipient, username, false, true, "No such user: " + recipient, null, null);
+            }
+
+            // Create copy for recipient's inbox using Builder Pattern; the body was sanitized once by the sender
+            Email recipientCopy = Email.builder()
+                    .messageId(email.getMessageId())
+                    .from(email.getFrom())
+                    .to(email.getTo())
+                    .subject(email.getSubject())
+                    .body(email.getBody())
+                    .timestamp(LocalDateTime.now())
+                    .priority(email.getPriority())
+                    .attachments(email.getAttachments())
+                    .inInbox()
+                    .markAsUnread()
+                    .build();
+
+            Email filteredEmail = filterService.applyFilters(username, recipientCopy);
+            List<String> forwardTo = filteredEmail.getForwardedTo();
+            filteredEmail.setForwardedTo(null);
+            emailRepository.saveEmail(username, filteredEmail);
+
+            log.info("Email {} delivered successfully to {}", email.getMessageId(), recipient);
+            return new Delivery(recipient, username, true, false, null, filteredEmail, forwardTo);
+        } catch (Exception e) {
+            log.error("Failed to deliver email {} to {}: {}", email.getMessageId(), recipient, e.getMessage());
+            return new Delivery(recipient, username, false, false, e.getMessage(), null, null);
+        }
+    }
+
+    // Local recipients may be addressed with or without the domain
+    static String usernameOf(String recipient) {
+        return recipient.endsWith("@jaryn.com") ? recipient.substring(0, recipient.indexOf('@')) : recipient;
+    }
+}
@@ -0,0 +1,151 @@
+package com.mail.backend.service;
+
+import com.mail.backend.repository.EmailRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Moves message files from older storage formats to the current ones, on its own thread once the application is up:
+// - bodies still stored inline in a header, or in a body file of the user's own, are moved into the shared
+//   body store. Always done, users already moved being skipped; meanwhile inline bodies are read from the header
+//   and a body file is moved as soon as its email is read;
+// - headers still stored in the old base64 JSON wrapper are rewritten into the binary envelope, once per startup
+//   unless disabled; the reader accepts both formats meanwhile.
+@Slf4j
+@Component
+public class EmailFormatMigrator {
+
+    @Autowired
+    private EmailRepository emailRepository;
+
+    // Written once every body of a user is in the body store, so later startups skip the decrypt pass
+    private static final String BODIES_MARKER = ".bodies-stored";
+    // Marker of an earlier split that left bodies in the user's own body files
+    private static final String OLD_SPLIT_MARKER = ".bodies-split";
+
+    @Value("${mail.format-migration-enabled:true}")
+    private boolean enabled;
+
+    public void moveBodies() {
+        int moved = 0;
+        for (Path userPath : userPaths()) {
+            if (Files.exists(userPath.resolve(BODIES_MARKER))) {
+                continue;
+            }
+            try {
+                moved += moveUserBodies(userPath);
+            } catch (IOException e) {
+                log.error("Failed to move the bodies of {} to the body store: {}", userPath.getFileName(), e.getMessage());
+            }
+        }
+        if (moved > 0) {
+            log.info("Moved {} email bodies to the body store", moved);
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startMigration() {
+        Thread worker = new Thread(() -> {
+            moveBodies();
+            if (enabled) {
+                migrateAll();
+            }
+        }, "email-format-migrator");
+        worker.setDaemon(true);
+        worker.setPriority(Thread.MIN_PRIORITY);
+        worker.start();
+    }
+
+    public void migrateAll() {
+        int migrated = 0;
+        for (Path userPath : userPaths()) {
+            String username = userPath.getFileName().toString();
+            try {
+                for (Path emailFile : emailFiles(userPath)) {
+                    try {
+                        if (emailRepository.migrateHeaderFormat(username, folderOf(emailFile), messageIdOf(emailFile))) {
+                            migrated++;
+                        }
+                    } catch (Exception e) {
+                        log.warn("Skipped migrating {}: {}", emailFile, e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                log.error("Email format migration failed for {}: {}", username, e.getMessage(), e);
+            }
+        }
+        log.info("Email format migration completed, {} files rewritten", migrated);
+    }
+
+    private int moveUserBodies(Path userPath) throws IOException {
+        String username = userPath.getFileName().toString();
+        int moved = 0;
+        boolean failed = false;
+        for (Path emailFile : emailFiles(userPath)) {
+            try {
+                if (emailRepository.moveBodyToStore(username, folderOf(emailFile), messageIdOf(emailFile))) {
+                    moved++;
+                }
+            } catch (Exception e) {
+                failed = true;
+                log.warn("Skipped moving the body of {}: {}", emailFile, e.getMessage());
+            }
+        }
+        if (!failed) {
+            int orphans = emailRepository.deleteLegacyBodies(username);
+            if (orphans > 0) {
+                log.info("Deleted {} body files of deleted emails of {}", orphans, username);
+            }
+            Files.deleteIfExists(userPath.resolve(OLD_SPLIT_MARKER));
+            Files.createFile(userPath.resolve(BODIES_MARKER));
+        }
+        return moved;
+    }
+
+    private List<Path> userPaths() {
+        Path rootPath = Paths.get(emailRepository.getMsgRoot());
+        if (!Files.exists(rootPath)) {
+            return List.of();
+        }
+        try (Stream<Path> userPaths = Files.list(rootPath)) {
+            return userPaths.filter(Files::isDirectory).toList();
+        } catch (IOException e) {
+            log.error("Failed to list mailboxes for migration: {}", e.getMessage(), e);
+            return List.of();
+        }
+    }
+
+    private static List<Path> emailFiles(Path userPath) throws IOException {
+        List<Path> folders;
+        try (Stream<Path> paths = Files.list(userPath)) {
+            folders = paths.filter(Files::isDirectory).toList();
+        }
+        List<Path> emailFiles = new ArrayList<>();
+        for (Path folder : folders) {
+            try (Stream<Path> paths = Files.list(folder)) {
+                emailFiles.addAll(paths.filter(p -> p.toString().endsWith(".json")).toList());
+            }
+        }
+        return emailFiles;
+    }
+
+    private static String folderOf(Path emailFile) {
+        return emailFile.getParent().getFileName().toString();
+    }
+
+    private static String messageIdOf(Path emailFile) {
+        String fileName = emailFile.getFileName().toString();
+        return fileName.substring(0, fileName.length() - ".json".length());
+    }
+}
@@ -2,9 +2,15 @@ package com.mail.backend.service;
 
 import com.mail.backend.dps.SearchFilter.*;
 import com.mail.backend.dps.strategy.*;
+import com.mail.backend.model.BulkResult;
+import com.mail.backend.model.DeliveryResult;
 import com.mail.backend.model.Email;
+import com.mail.backend.model.EmailMetadata;
+import com.mail.backend.model.EmailSummary;
 import com.mail.backend.model.SSE;
 import com.mail.backend.repository.EmailRepository;
+import com.mail.backend.repository.MailboxIndex;
+import com.mail.backend.repository.SearchIndex;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -13,7 +19,6 @@ import java.io.IOException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Slf4j
 @Service
@@ -28,10 +33,21 @@ public class EmailService {
     @Autowired
     private FilterService filterService;
     @Autowired
-    private UserService userService;
+    private UserDirectoryService userDirectoryService;
+    @Autowired
+    private SearchPlanner searchPlanner;
+    @Autowired
+    private BulkOperationService bulkOperationService;
+    @Autowired
+    private OutboxService outboxService;
 
     // SEND EMAIL - Save to sent folder and create copy in recipient's inbox
-    public String sendEmail(String username, Email emailRequest) throws IOException {
+    public DeliveryResult sendEmail(String username, Email emailRequest) throws IOException {
+        return send(username, emailRequest, List.of(), true);
+    }
+
+    // forwardPath lists the users a forwarded email came from (empty for one a user sent); body is sanitized unless it already was
+    private DeliveryResult send(String username, Email emailRequest, List<String> forwardPath, boolean sanitize) throws IOException {
         // Validate
         if (emailRequest.getTo() == null || emailRequest.getTo().isEmpty()) {
             throw new IllegalArgumentException("Recipients list cannot be empty");
@@ -40,103 +56,83 @@ public class EmailService {
             throw new IllegalArgumentException("Subject cannot be empty");
         }
 
+        // Each recipient gets one copy, however many times they were addressed
+        List<String> recipients = new ArrayList<>(new LinkedHashSet<>(emailRequest.getTo()));
+        for (String recipient : recipients) {
+            if (recipient == null || recipient.isBlank())
+                throw new IllegalArgumentException("Recipient cannot be empty");
+            if (DeliveryService.usernameOf(recipient).equals(username))
+                throw new IllegalArgumentException("A user can't send an email to himself");
+        }
+
         // Generate unique messageId
         String messageId = generateMessageId();
 
+        // Unknown recipients fail right away; the rest are queued. The whole list is checked in one lookup.
+        Set<String> existing = userDirectoryService.existing(
+                recipients.stream().map(DeliveryService::usernameOf).toList());
+        DeliveryResult result = new DeliveryResult(messageId);
+        List<String> queued = new ArrayList<>();
+        for (String recipient : recipients) {
+            if (existing.contains(DeliveryService.usernameOf(recipient))) {
+                queued.add(recipient);
+                result.queued(recipient);
+            } else {
+                result.failed(recipient, "No such user: " + recipient);
+            }
+        }
+        if (queued.isEmpty())
+            throw new IllegalArgumentException("you can't send an email to a non-existing user");
+
         // Build the email using Builder Pattern
         Email email = Email.builder()
                 .messageId(messageId)
                 .from(username + "@jaryn.com")
                 .to(emailRequest.getTo())
                 .subject(emailRequest.getSubject())
-                .body(HtmlHelper.sanitizeHtml(emailRequest.getBody()))
+                .body(sanitize ? HtmlHelper.sanitizeHtml(emailRequest.getBody()) : emailRequest.getBody())
                 .timestamp(LocalDateTime.now())
                 .priority(emailRequest.getPriority() != null ? emailRequest.getPriority() : 3)
                 .attachments(emailRequest.getAttachments())
                 .inSent()
                 .isRead(true)
                 .build();
-        eventService.publishEvent(new SSE("Received",email.getTo()));
-
-        log.info("Email {} sent by {} to {}", messageId, username, email.getTo());
-
-        // Loop through all recipients
-        Queue<String> recipientQueue = new LinkedList<>(email.getTo());
-        int totalRecipients = recipientQueue.size();
-        int successfulDeliveries = 0;
-        int failedDeliveries = 0;
-
-        log.info("Processing email {} delivery to {} recipients using Queue", messageId, totalRecipients);
-
-        // Process recipients from the queue
-        while (!recipientQueue.isEmpty()) {
-            String recipient = recipientQueue.poll();
-            if (recipient != null && recipient.endsWith("@jaryn.com")) {
-                int atIndex = recipient.indexOf('@');
-                if (atIndex != -1) {
-                    recipient = recipient.substring(0, atIndex);
-                }
-            }
-            if (recipient != null && (recipient.equals(username) || recipient.equals(username + "@jaryn.com")))
-                throw new IllegalArgumentException("A user can't send an email to himself");
-            if (!userService.existsByUsername(recipient))
-                throw new IllegalArgumentException("you can't send an email to a non-existing user");
-
-            try {
-                // Create copy for recipient's inbox using Builder Pattern
-                Email recipientCopy = Email.builder()
-                        .messageId(messageId)
-                        .from(email.getFrom())
-                        .to(email.getTo())
-                        .subject(email.getSubject())
-                        .body(HtmlHelper.sanitizeHtml(email.getBody()))
-                        .timestamp(LocalDateTime.now())
-                        .priority(email.getPriority())
-                        .attachments(email.getAttachments())
-                        .inInbox()
-                        .markAsUnread()
-                        .build();
-
-                String recipientUsername = extractUsername(recipient);
-                Email filteredemail = filterService.applyFilters(recipientUsername, recipientCopy);
-                emailRepository.saveEmail(recipientUsername, filteredemail);
-                List<String> forwardingRecipients = filteredemail.getForwardedTo();
-                if (forwardingRecipients != null && !forwardingRecipients.isEmpty()) {
-                    filteredemail.setForwardedTo(null);
-                    forwardEmail(recipientUsername,recipientCopy,forwardingRecipients);
-                }
-
-                successfulDeliveries++;
-                log.info("Email {} delivered successfully to {} [Queue position: {}/{}]",
-                        messageId, recipient, (totalRecipients - recipientQueue.size()), totalRecipients);
-
-            } catch (Exception e) {
-                failedDeliveries++;
-                // Continue with next recipient instead of throwing
-                log.error("Failed to deliver email {} to {}: {}", messageId, recipient, e.getMessage());
-            }
-
-            // Save to sender's sent folder
-            try{
-                emailRepository.saveEmail(username, filterService.applyFilters(username, email));
-            } catch (Exception e){
-                System.err.println(e.getMessage());
-            }
-        }
 
-        // Log delivery summary
-        log.info("Email {} delivery complete - Success: {}/{}, Failed: {}/{}",
-                messageId, successfulDeliveries, totalRecipients, failedDeliveries, totalRecipients);
+        // The outbox record is what makes the email sent; recipients' copies are delivered from it in the background
+        outboxService.enqueue(username, email, queued, forwardPath);
 
-        if (failedDeliveries > 0) {
-            log.warn("Email {} had {} failed delivery attempts out of {}",
-                    messageId, failedDeliveries, totalRecipients);
+        // Save to sender's sent folder
+        try {
+            emailRepository.saveEmail(username, filterService.applyFilters(username, email));
+        } catch (Exception e) {
+            log.error("Failed to save email {} to the sent folder of {}: {}", messageId, username, e.getMessage());
         }
 
-        return messageId;
+        log.info("Email {} sent by {} - Queued: {}/{}, Failed: {}/{}", messageId, username,
+                result.getQueued(), recipients.size(), result.getFailed(), recipients.size());
+        return result;
     }
     //Forward Email
-    public String forwardEmail(String username, Email emailRequest,List<String> newRecipients) throws IOException {
+    public DeliveryResult forwardEmail(String username, Email emailRequest,List<String> newRecipients) throws IOException {
+        wrapForwarded(emailRequest, newRecipients);
+        return sendEmail(username, emailRequest);
+    }
+
+    // Forward made by a filter of username when a copy reached their inbox; forwardPath starts with the original
+    // sender and ends with username.
+    // Only the first forward of a chain wraps the message: later ones pass the wrapped body on unchanged, so it
+    // isn't sanitized and nested again at every hop and all copies along the chain share one stored body.
+    public DeliveryResult forwardInChain(String username, Email copy, List<String> newRecipients,
+                                         List<String> forwardPath) throws IOException {
+        if (forwardPath.size() > 2) {
+            copy.setTo(newRecipients);
+            return send(username, copy, forwardPath, false);
+        }
+        wrapForwarded(copy, newRecipients);
+        return send(username, copy, forwardPath, true);
+    }
+
+    private void wrapForwarded(Email emailRequest, List<String> newRecipients) {
         if (emailRequest.getTo() == null || emailRequest.getTo().isEmpty()) {
             throw new IllegalArgumentException("Recipients list cannot be empty");
         }
@@ -161,24 +157,21 @@ public class EmailService {
         );
         emailRequest.setTo(newRecipients);
         emailRequest.setSubject("FWD: "+emailRequest.getSubject());
-        return sendEmail(username, emailRequest);
     }
 
     // SAVE DRAFT
     public String saveDraft(String username, Email emailRequest) throws IOException {
         String messageId = generateMessageId();
+        List<String> recipientNames = new ArrayList<>();
         for(String recipient : emailRequest.getTo()){
-            if (recipient != null && recipient.endsWith("@jaryn.com")) {
-                int atIndex = recipient.indexOf('@');
-                if (atIndex != -1) {
-                    recipient = recipient.substring(0, atIndex);
-                }
-            }
-            if (recipient != null && (recipient.equals(username) || recipient.equals(username + "@jaryn.com")))
-                throw new IllegalArgumentException("A user can't send an email to himself");
-            if (!userService.existsByUsername(recipient))
+            if (recipient == null)
                 throw new IllegalArgumentException("you can't send an email to a non-existing user");
+            if (DeliveryService.usernameOf(recipient).equals(username))
+                throw new IllegalArgumentException("A user can't send an email to himself");
+            recipientNames.add(DeliveryService.usernameOf(recipient));
         }
+        if (!userDirectoryService.existing(recipientNames).containsAll(recipientNames))
+            throw new IllegalArgumentException("you can't send an email to a non-existing user");
 
         // Build draft using Builder Pattern
         Email draft = Email.builder()
@@ -215,326 +208,210 @@ public class EmailService {
         sendEmail(username, draft);
     }
 
-    // GET INBOX EMAILS - Paginated
-    public Map<String, Object> getInboxEmails(String username, int page, int limit, String sortBy) throws IOException {
-        List<Email> emails = emailRepository.listEmailsInFolder(username, "inbox");
-
-        // Apply Sorting
-        if(sortBy != null && !sortBy.isEmpty()) {
-            SortStrategy strategy = getSortStrategy(sortBy);
-            emails = strategy.sort(emails);
-        }
-        return paginate(emails, page, limit, "inbox");
+    // GET INBOX EMAILS - Paginated by page number, or by cursor when one is given
+    public Map<String, Object> getInboxEmails(String username, int page, int limit, String sortBy, String cursor) throws IOException {
+        return getEmailsInFolder(username, "inbox", page, limit, sortBy, cursor);
     }
 
-    // GET EMAILS FROM ANY FOLDER - Paginated
-    public Map<String, Object> getEmailsInFolder(String username, String folder, int page, int limit, String sortBy) throws IOException {
-        List<Email> emails = emailRepository.listEmailsInFolder(username, folder);
-
-        // Apply Sorting
-        if (sortBy != null && !sortBy.isEmpty()) {
-            SortStrategy strategy = getSortStrategy(sortBy);
-            emails = strategy.sort(emails);
-        }
-
-        return paginate(emails, page, limit, folder);
+    // GET EMAILS FROM ANY FOLDER - Paginated by page number, or by cursor when one is given
+    public Map<String, Object> getEmailsInFolder(String username, String folder, int page, int limit,
+                                                 String sortBy, String cursor) throws IOException {
+        MailboxIndex index = emailRepository.getIndex(username);
+        SortStrategy strategy = getSortStrategy(sortBy);
+        // The index keeps each folder in every sort order: read the page straight off it
+        return paginate(username, index.folderSize(folder), page, limit, folder, strategy, cursor,
+                (after, offset, count) -> index.folderPage(strategy.comparator(), folder, after, offset, count));
     }
 
     // GET SINGLE EMAIL
     public Email getEmail(String username, String messageId) throws IOException {
-        // Search across all folders
-        List<Email> allEmails = emailRepository.getAllEmails(username);
-        return allEmails.stream()
-                .filter(e -> e.getMessageId().equals(messageId))
-                .findFirst()
-                .orElseThrow(() -> new IOException("Email not found: " + messageId));
+        // The mailbox index locates the folder, so a single file is read
+        return emailRepository.getEmail(username, messageId);
     }
 
     // SEARCH EMAILS
-    public List<Email> searchEmails(String username, String sender, String receiver,
+    public List<EmailSummary> searchEmails(String username, String sender, String receiver,
                                     String subject, String body,String folder,
                                     String keyword, Integer priority, Boolean hasAttachment,
                                     String startDate, String endDate,
                                     String sortBy) throws IOException {
 
-        List<Email> allEmails = emailRepository.getAllEmails(username);
-        SearchFilter finalFilter;
+        SearchPlanner.Plan plan = planSearch(username, sender, receiver, subject, body, folder,
+                keyword, priority, hasAttachment, startDate, endDate);
 
-        if (keyword != null && !keyword.trim().isEmpty()) {
-            final String searchKey = keyword.toLowerCase();
-            // Global Search (OR Logic)
-            SearchFilter subjectRule = (emails) -> emails.stream()
-                    .filter(e -> e.getSubject() != null && e.getSubject().toLowerCase().contains(searchKey))
-                    .collect(Collectors.toList());
-
-            SearchFilter bodyRule = (emails) -> emails.stream()
-                    .filter(e -> e.getBody() != null && e.getBody().toLowerCase().contains(searchKey))
-                    .collect(Collectors.toList());
-
-            SearchFilter senderRule = (emails) -> emails.stream()
-                    .filter(e -> e.getFrom() != null && e.getFrom().toLowerCase().contains(searchKey))
-                    .collect(Collectors.toList());
-
-            SearchFilter receiverRule = (emails) -> emails.stream()
-                    .filter(e -> e.getTo() != null && e.getTo().toString().toLowerCase().contains(searchKey))
-                    .collect(Collectors.toList());
-
-            // Chain: Subject OR Body OR Sender OR Receiver
-            finalFilter = subjectRule;
-            finalFilter = new OrFilter(finalFilter, bodyRule);
-            finalFilter = new OrFilter(finalFilter, senderRule);
-            finalFilter = new OrFilter(finalFilter, receiverRule);
+        // Only the emails that pass are read from disk
+        List<EmailMetadata> results = plan.execute();
+        if (sortBy != null && !sortBy.isEmpty()) {
+            SortStrategy sortStrategy = getSortStrategy(sortBy);
+            results = sortStrategy.sort(results);
+        }
+        return loadSummaries(username, results);
+    }
+
+    // SEARCH EMAILS - one page in sortBy order, starting after the cursor when one is given
+    public Map<String, Object> searchEmailsPage(String username, String sender, String receiver,
+                                                String subject, String body, String folder,
+                                                String keyword, Integer priority, Boolean hasAttachment,
+                                                String startDate, String endDate,
+                                                String sortBy, int limit, String cursor) throws IOException {
+        SortStrategy strategy = getSortStrategy(sortBy);
+        EmailMetadata after = cursor == null || cursor.isEmpty() ? null : PageCursor.decode(cursor).positionIn(strategy);
+        if (limit < 1) limit = 1;
+
+        SearchPlanner.Plan plan = planSearch(username, sender, receiver, subject, body, folder,
+                keyword, priority, hasAttachment, startDate, endDate);
+        Map<String, Object> response = new HashMap<>();
+        putPage(response, username, plan.page(strategy.comparator(), after, limit + 1), limit, strategy);
+        return response;
+    }
+
+    // EXPLAIN SEARCH - the plan searchEmails would run for these criteria, with its estimates
+    public Map<String, Object> explainSearch(String username, String sender, String receiver,
+                                             String subject, String body, String folder,
+                                             String keyword, Integer priority, Boolean hasAttachment,
+                                             String startDate, String endDate) {
+        return planSearch(username, sender, receiver, subject, body, folder,
+                keyword, priority, hasAttachment, startDate, endDate).explain();
+    }
 
+    private SearchPlanner.Plan planSearch(String username, String sender, String receiver,
+                                          String subject, String body, String folder,
+                                          String keyword, Integer priority, Boolean hasAttachment,
+                                          String startDate, String endDate) {
+        // Text criteria can be answered from the full-text index's posting lists
+        List<SearchPlanner.TextCriterion> text = new ArrayList<>();
+        if (keyword != null && !keyword.trim().isEmpty()) {
+            // Global Search (OR Logic): Subject OR Body OR Sender OR Receiver
+            text.add(new SearchPlanner.TextCriterion(null, keyword));
         } else {
             // (AND Logic)
-            finalFilter = new SearchFilter() {
-                @Override
-                public List<Email> meetCriteria(List<Email> emails) {
-                    return emails;
-                }
-            };
-
             if (sender != null && !sender.isEmpty()) {
-                finalFilter = new AndFilter(finalFilter, new SenderFilter(sender));
+                text.add(new SearchPlanner.TextCriterion(SearchIndex.FROM, sender));
             }
             if (receiver != null && !receiver.isEmpty()) {
-                finalFilter = new AndFilter(finalFilter, new ReceiverFilter(receiver));
+                text.add(new SearchPlanner.TextCriterion(SearchIndex.TO, receiver));
             }
             if (subject != null && !subject.isEmpty()) {
-                finalFilter = new AndFilter(finalFilter, new SubjectFilter(subject));
+                text.add(new SearchPlanner.TextCriterion(SearchIndex.SUBJECT, subject));
             }
             if (body != null && !body.isEmpty()) {
-                finalFilter = new AndFilter(finalFilter, new BodyFilter(body));
+                text.add(new SearchPlanner.TextCriterion(SearchIndex.BODY, body));
             }
         }
 
-        //Apply priority and Attachment logic on top of everything (and)
+        // Everything else is checked on the index entries; the planner picks the order
+        List<SearchFilter> filters = new ArrayList<>();
         if (priority != null) {
-            finalFilter = new AndFilter(finalFilter, new PriorityFilter(priority));
-            log.info("Here is the priority: " + priority.toString());
+            filters.add(new PriorityFilter(priority));
         }
-
         if (hasAttachment != null && hasAttachment) {
-            finalFilter = new AndFilter(finalFilter, new AttachmentFilter(hasAttachment));
+            filters.add(new AttachmentFilter(hasAttachment));
         }
         if ((startDate != null && !startDate.isEmpty()) || (endDate != null && !endDate.isEmpty())) {
-            finalFilter = new AndFilter(finalFilter, new DateRangeFilter(startDate, endDate));
+            filters.add(new DateRangeFilter(startDate, endDate));
         }
-        //chaining for folders/status
+        //folders/status
         if (folder != null && !folder.isEmpty() && !folder.equalsIgnoreCase("all")) {
             switch (folder.toLowerCase()) {
                 case "starred":
-                    finalFilter = new AndFilter(finalFilter, new StarredFilter());
+                    filters.add(new StarredFilter());
                     break;
                 case "read":
-                    finalFilter = new AndFilter(finalFilter, new ReadStatusFilter(true));
+                    filters.add(new ReadStatusFilter(true));
                     break;
                 case "unread":
-                    finalFilter = new AndFilter(finalFilter, new ReadStatusFilter(false));
+                    filters.add(new ReadStatusFilter(false));
                     break;
                 default:
                     //it's a specific folder (Inbox, Sent, Custom, ..etc)
-                    finalFilter = new AndFilter(finalFilter, new FolderFilter(folder));
+                    filters.add(new FolderFilter(folder));
                     break;
             }
         }
 
-
-        // Execute the filter chain
-        List<Email> results = finalFilter.meetCriteria(allEmails);
-        if (sortBy != null && !sortBy.isEmpty()) {
-            SortStrategy sortStrategy = getSortStrategy(sortBy);
-            results = sortStrategy.sort(results);
-        }
-        return results;
+        return searchPlanner.plan(emailRepository.getIndex(username), emailRepository.getSearchIndex(username),
+                text, filters);
     }
 
     // MARK AS READ
     public void markAsRead(String username, String messageId) throws IOException {
-        Email email = getEmail(username, messageId);
-
-        // Use Builder Pattern to create modified email
-        Email updatedEmail = email.toBuilder()
-                .markAsRead()
-                .build();
+        EmailSummary email = emailRepository.getSummary(username, messageId);
+        if (email.isRead()) {
+            return; // opening a read email shouldn't rewrite it
+        }
 
-        emailRepository.saveEmail(username, updatedEmail);
+        // Flags live in the header record, so the body is never rewritten
+        email.setRead(true);
+        emailRepository.saveSummary(username, email);
         log.info("Email {} marked as read by {}", messageId, username);
     }
 
     // MARK AS UNREAD
     public void markAsUnread(String username, String messageId) throws IOException {
-        Email email = getEmail(username, messageId);
-
-        // Use Builder Pattern to create modified email
-        Email updatedEmail = email.toBuilder()
-                .markAsUnread()
-                .build();
-
-        emailRepository.saveEmail(username, updatedEmail);
+        EmailSummary email = emailRepository.getSummary(username, messageId);
+        email.setRead(false);
+        emailRepository.saveSummary(username, email);
         log.info("Email {} marked as unread by {}", messageId, username);
     }
 
     // STAR EMAIL
     public void starEmail(String username, String messageId) throws IOException {
-        Email email = getEmail(username, messageId);
-
-        // Use Builder Pattern to create modified email
-        Email updatedEmail = email.toBuilder()
-                .star()
-                .build();
-
-        emailRepository.saveEmail(username, updatedEmail);
+        EmailSummary email = emailRepository.getSummary(username, messageId);
+        email.setStarred(true);
+        emailRepository.saveSummary(username, email);
         log.info("Email {} starred by {}", messageId, username);
     }
 
     // UNSTAR EMAIL
     public void unstarEmail(String username, String messageId) throws IOException {
-        Email email = getEmail(username, messageId);
-
-        // Use Builder Pattern to create modified email
-        Email updatedEmail = email.toBuilder()
-                .unstar()
-                .build();
-
-        emailRepository.saveEmail(username, updatedEmail);
+        EmailSummary email = emailRepository.getSummary(username, messageId);
+        email.setStarred(false);
+        emailRepository.saveSummary(username, email);
         log.info("Email {} unstarred by {}", messageId, username);
     }
 
     // MOVE EMAIL TO FOLDER
     public void moveEmail(String username, String messageId, String toFolder) throws IOException {
-        Email email = getEmail(username, messageId);
-        String fromFolder = email.getFolder();
-
-        String originalFolderToSave = email.getOriginalFolder();
-        if (originalFolderToSave == null || originalFolderToSave.isEmpty()) {
-            originalFolderToSave = fromFolder;
-        }
-
-        // Use Builder Pattern to update folder
-        Email updatedEmail = email.toBuilder()
-                .folder(toFolder)
-                .originalFolder(originalFolderToSave)  // Preserve or set original folder
-                .build();
-
-        // If moving to trash, set deletedAt
         if (toFolder.equals("trash")) {
-            updatedEmail = updatedEmail.toBuilder()
-                    .deletedAt(LocalDateTime.now())
-                    .build();
+            // The trash bookkeeping (deletedAt, originalFolder) is kept in the header
+            deleteEmail(username, messageId);
+            return;
         }
 
+        // Any other move only renames the header file - nothing is decrypted or rewritten
+        String fromFolder = emailRepository.locate(username, messageId);
+        if (fromFolder == null) {
+            throw new IOException("Email not found: " + messageId);
+        }
         emailRepository.moveEmail(username, messageId, fromFolder, toFolder);
 
-        // Save the updated email metadata with new folder
-        emailRepository.saveEmail(username, updatedEmail);
-
-        log.info("Email {} moved from {} to {}, original folder tracked as: {}",
-                messageId, fromFolder, toFolder, originalFolderToSave);
+        log.info("Email {} moved from {} to {}", messageId, fromFolder, toFolder);
     }
 
     // DELETE EMAIL (Move to trash)
     public void deleteEmail(String username, String messageId) throws IOException {
-        Email email = getEmail(username, messageId);
-        String currentFolder = email.getFolder();
-
-        if (!currentFolder.equals("trash")) {
-            emailRepository.moveEmail(username, messageId, currentFolder, "trash");
-
-            String originalFolderToPreserve = email.getOriginalFolder();
-            if (originalFolderToPreserve == null || originalFolderToPreserve.isEmpty()) {
-                originalFolderToPreserve = currentFolder;
-            }
-
-            // Use Builder Pattern to mark as deleted
-            Email trashedEmail = email.toBuilder()
-                    .inTrash()
-                    .originalFolder(originalFolderToPreserve)  // IMPORTANT: Preserve original folder
-                    .build();
-
-            emailRepository.saveEmail(username, trashedEmail);
-            log.info("Email {} moved to trash by {}, will restore to: {}",
-                    messageId, username, originalFolderToPreserve);
-        }
+        requireSuccess(bulkOperationService.moveToTrash(username, List.of(messageId)));
+        log.info("Email {} moved to trash by {}", messageId, username);
     }
 
     // PERMANENTLY DELETE EMAIL
     public void permanentlyDeleteEmail(String username, String messageId) throws IOException {
-        Email email = getEmail(username, messageId);
-
-        if (email == null) {
-            throw new IOException("Email not found: " + messageId);
-        }
-
-        String folder = email.getFolder();
-        if (folder == null || folder.isEmpty()) {
-            folder = "inbox"; // Default fallback
-        }
-
-        boolean deleted = emailRepository.deleteEmail(username, folder, messageId);
-
-        if (!deleted) {
-            log.warn("Failed to permanently delete email {} from folder {}", messageId, folder);
-            throw new IOException("Failed to delete email from file system: " + messageId);
-        }
-
-        log.info("Email {} permanently deleted from folder {}", messageId, folder);
+        requireSuccess(bulkOperationService.permanentlyDelete(username, List.of(messageId)));
+        log.info("Email {} permanently deleted by {}", messageId, username);
     }
 
     // BULK MOVE EMAILS
-    public void bulkMove(String username, List<String> messageIds, String toFolder) throws IOException {
-        for (String messageId : messageIds) {
-            try {
-                moveEmail(username, messageId, toFolder);
-            } catch (IOException e) {
-                log.error("Failed to move email {}", messageId, e);
-            }
-        }
-        log.info("Bulk moved {} emails to {}", messageIds.size(), toFolder);
+    public BulkResult bulkMove(String username, List<String> messageIds, String toFolder) {
+        return bulkOperationService.move(username, messageIds, toFolder);
     }
 
-    // BULK DELETE EMAILS
-    public void bulkDelete(String username, List<String> messageIds) throws IOException {
-        for (String messageId : messageIds) {
-            try {
-                deleteEmail(username, messageId);  // Move to trash, NOT permanently delete
-            } catch (IOException e) {
-                log.error("Failed to delete email {}", messageId, e);
-            }
-        }
-        log.info("Bulk deleted {} emails", messageIds.size());
+    // BULK DELETE EMAILS - Move to trash, NOT permanently delete
+    public BulkResult bulkDelete(String username, List<String> messageIds) {
+        return bulkOperationService.moveToTrash(username, messageIds);
     }
 
-    public void bulkPermanentlyDelete(String username, List<String> messageIds) throws IOException {
-        int successCount = 0;
-        int failureCount = 0;
-
-        for (String messageId : messageIds) {
-            try {
-                Email email = getEmail(username, messageId);
-                String folder = email.getFolder();
-
-                boolean deleted = emailRepository.deleteEmail(username, folder, messageId);
-
-                if (deleted) {
-                    successCount++;
-                    log.info("Permanently deleted email {}", messageId);
-                } else {
-                    failureCount++;
-                    log.error("Failed to permanently delete email {}", messageId);
-                }
-
-            } catch (IOException e) {
-                failureCount++;
-                log.error("Failed to permanently delete email {}: {}", messageId, e.getMessage(), e);
-            }
-        }
-
-        log.info("Bulk permanently deleted {} emails - Success: {}, Failures: {}", messageIds.size(), successCount, failureCount);
-
-        if (failureCount > 0) {
-            throw new IOException("Failed to delete " + failureCount + " emails. See logs for details.");
-        }
+    public BulkResult bulkPermanentlyDelete(String username, List<String> messageIds) {
+        return bulkOperationService.permanentlyDelete(username, messageIds);
     }
 
 //    // CLEANUP TRASH - Auto delete after 30 days
@@ -546,65 +423,48 @@ public class EmailService {
 
     // Moves email back to the folder it was in before deletion
     public void restoreEmailFromTrash(String username, String messageId) throws IOException {
-        Email email = getEmail(username, messageId);
-
-        if (email == null) {
-            throw new IOException("Email not found: " + messageId);
-        }
-
-        // Check if email is in trash
-        if (!email.getFolder().equals("trash")) {
-            throw new IOException("Email is not in trash");
-        }
-
-        // Determine restore folder - use originalFolder if available, otherwise default to inbox
-        String restoreFolder = email.getOriginalFolder();
-        if (restoreFolder == null || restoreFolder.isEmpty() || restoreFolder.equals("trash")) {
-            restoreFolder = "inbox"; // Default fallback
-            log.warn("No original folder found for email {}. Restoring to inbox", messageId);
-        }
-
-        log.info("Restoring email {} from trash to original folder: {}", messageId, restoreFolder);
+        BulkResult result = bulkOperationService.restore(username, List.of(messageId));
+        requireSuccess(result);
+        log.info("Email {} successfully restored to {}", messageId, result.getResults().get(0).getFolder());
+    }
 
-        // Move email back to original folder
-        emailRepository.moveEmail(username, messageId, "trash", restoreFolder);
+    // Restores multiple emails to their original folders
+    public BulkResult bulkRestoreFromTrash(String username, List<String> messageIds) {
+        return bulkOperationService.restore(username, messageIds);
+    }
 
-        // Update the email metadata
-        Email restoredEmail = email.toBuilder()
-                .folder(restoreFolder)
-                .deletedAt(null) // Clear the deletion timestamp
-                .originalFolder(null) // Clear original folder after restore
-                .build();
+    // BULK FLAG UPDATE - read and / or starred (null leaves a flag as it is), one SSE event for the whole batch
+    public BulkResult bulkSetFlags(String username, List<String> messageIds, Boolean read, Boolean starred) {
+        BulkResult result = bulkOperationService.setFlags(username, messageIds, read, starred);
+        publishFlagsChanged(username, result);
+        return result;
+    }
 
-        emailRepository.saveEmail(username, restoredEmail);
-        log.info("Email {} successfully restored to {}", messageId, restoreFolder);
+    // MARK ALL EMAILS OF A FOLDER AS READ
+    public BulkResult markFolderRead(String username, String folder) {
+        BulkResult result = bulkOperationService.markFolderRead(username, folder);
+        publishFlagsChanged(username, result);
+        log.info("Marked {} emails in {} as read for {}", result.getSucceeded(), folder, username);
+        return result;
     }
 
-    // Restores multiple emails to their original folders
-    public void bulkRestoreFromTrash(String username, List<String> messageIds) throws IOException {
-        for (String messageId : messageIds) {
-            try {
-                restoreEmailFromTrash(username, messageId);
-            } catch (IOException e) {
-                log.error("Failed to restore email {}: {}", messageId, e.getMessage());
-                // Continue with next email instead of failing completely
-            }
+    private void publishFlagsChanged(String username, BulkResult result) {
+        if (result.getSucceeded() > 0) {
+            eventService.publishEvent(new SSE("Flags", List.of(username + "@jaryn.com"), result.getSucceeded()));
         }
-        log.info("Bulk restored {} emails from trash", messageIds.size());
     }
 
     // GET STARRED EMAILS + sorting
     public Map<String, Object> getStarredEmails(String username, String sortBy) throws IOException {
-        List<Email> allEmails = emailRepository.getAllEmails(username);
-        List<Email> starred = allEmails.stream()
-                .filter(Email::isStarred)
-                .collect(Collectors.toList());
+        MailboxIndex index = emailRepository.getIndex(username);
+        List<EmailMetadata> entries = index.entriesOf(index.starredBits());
 
         // Apply sorting
         if (sortBy != null && !sortBy.isEmpty()) {
             SortStrategy strategy = getSortStrategy(sortBy);
-            starred = strategy.sort(starred);
+            entries = strategy.sort(entries);
         }
+        List<EmailSummary> starred = loadSummaries(username, entries);
 
         // Return in same format
         Map<String, Object> response = new HashMap<>();
@@ -619,28 +479,18 @@ public class EmailService {
     }
 
     // Also add paginated version for future use
-    public Map<String, Object> getStarredEmailsPaginated(String username, int page, int limit, String sortBy) throws IOException {
-        List<Email> allEmails = emailRepository.getAllEmails(username);
-        List<Email> starred = allEmails.stream()
-                .filter(Email::isStarred)
-                .collect(Collectors.toList());
-
-        // Apply sorting
-        if (sortBy != null && !sortBy.isEmpty()) {
-            SortStrategy strategy = getSortStrategy(sortBy);
-            starred = strategy.sort(starred);
-        }
-
-        return paginate(starred, page, limit, "starred");
+    public Map<String, Object> getStarredEmailsPaginated(String username, int page, int limit,
+                                                         String sortBy, String cursor) throws IOException {
+        MailboxIndex index = emailRepository.getIndex(username);
+        BitSet starredBits = index.starredBits();
+        SortStrategy strategy = getSortStrategy(sortBy);
+        return paginate(username, starredBits.cardinality(), page, limit, "starred", strategy, cursor,
+                (after, offset, count) -> index.page(strategy.comparator(), starredBits, null, after, offset, count));
     }
 
     // GET UNREAD EMAIL COUNT
     public int getUnreadCount(String username) throws IOException {
-        List<Email> allEmails = emailRepository.getAllEmails(username);
-        return (int) allEmails.stream()
-                .filter(email -> email.getFolder().equals("inbox"))
-                .filter(email -> !email.isRead())
-                .count();
+        return emailRepository.getIndex(username).countUnreadInFolder("inbox");
     }
 
     // Generate unique message ID
@@ -648,40 +498,78 @@ public class EmailService {
         return UUID.randomUUID().toString().substring(0, 8);
     }
 
-    // Extract username from email address
-    private String extractUsername(String emailAddress) {
-        if (emailAddress.contains("@jaryn.com")) {
-            return emailAddress.split("@")[0];
-        }
-        // For external emails, use first part of email
-        return emailAddress.split("@")[0];
+
+    // Reads up to count index entries in the listing's order: those after `after` (from the start when null),
+    // skipping the first offset of them
+    private interface PageReader {
+        List<EmailMetadata> read(EmailMetadata after, int offset, int count);
     }
 
-    // Paginate list of emails
-    private Map<String, Object> paginate(List<Email> emails, int page, int limit, String folder) {
-        int totalEmails = emails.size();
-        int totalPages = (int) Math.ceil((double) totalEmails / limit);
+    // Paginate a listing whose entries can be read page by page - only the emails on the page are read from disk.
+    // With a cursor the page starts right after the last email of the previous one; otherwise it is found by number.
+    private Map<String, Object> paginate(String username, int totalEmails, int page, int limit, String folder,
+                                         SortStrategy strategy, String cursor, PageReader pageReader) {
+        if (limit < 1) limit = 1;
+        Map<String, Object> response = new HashMap<>();
 
-        // Validate page
-        if (page < 1) page = 1;
-        if (page > totalPages && totalPages > 0) page = totalPages;
+        List<EmailMetadata> entries;
+        if (cursor != null && !cursor.isEmpty()) {
+            entries = pageReader.read(PageCursor.decode(cursor).positionIn(strategy), 0, limit + 1);
+        } else {
+            int totalPages = (int) Math.ceil((double) totalEmails / limit);
 
-        int startIdx = (page - 1) * limit;
-        int endIdx = Math.min(startIdx + limit, totalEmails);
+            // Validate page
+            if (page < 1) page = 1;
+            if (page > totalPages && totalPages > 0) page = totalPages;
 
-        List<Email> pageContent = emails.subList(startIdx, endIdx);
+            // One extra entry tells whether a next page exists
+            entries = pageReader.read(null, (page - 1) * limit, limit + 1);
+            response.put("currentPage", page);
+            response.put("totalPages", totalPages);
+        }
 
-        Map<String, Object> response = new HashMap<>();
-        response.put("content", pageContent);
-        response.put("currentPage", page);
+        putPage(response, username, entries, limit, strategy);
         response.put("pageSize", limit);
-        response.put("totalPages", totalPages);
         response.put("totalEmails", totalEmails);
         response.put("folder", folder);
 
         return response;
     }
 
+    // Puts up to limit of the entries as the page content; nextCursor is set when more entries follow them
+    private void putPage(Map<String, Object> response, String username, List<EmailMetadata> entries,
+                         int limit, SortStrategy strategy) {
+        boolean more = entries.size() > limit;
+        if (more) {
+            entries = entries.subList(0, limit);
+        }
+        response.put("content", loadSummaries(username, entries));
+        response.put("nextCursor", more ? PageCursor.encode(strategy, entries.get(entries.size() - 1)) : null);
+    }
+
+    // Single-message operations run through the bulk engine; its failure becomes the caller's exception
+    private static void requireSuccess(BulkResult result) throws IOException {
+        for (BulkResult.Item item : result.getResults()) {
+            if (!item.isSuccess()) {
+                throw new IOException(item.getError());
+            }
+        }
+    }
+
+    // Read the header records behind a list of index entries, keeping their order; bodies are never loaded
+    private List<EmailSummary> loadSummaries(String username, List<EmailMetadata> entries) {
+        List<EmailSummary> emails = new ArrayList<>();
+        for (EmailMetadata entry : entries) {
+            try {
+                emails.add(emailRepository.getSummary(username, entry.getFolder(), entry.getMessageId()));
+            } catch (IOException e) {
+                log.error("Indexed email {} could not be read from {}: {}",
+                        entry.getMessageId(), entry.getFolder(), e.getMessage());
+            }
+        }
+        return emails;
+    }
+
     // Strategy Pattern - Sorting
     private SortStrategy getSortStrategy(String sortBy) {
         if(sortBy==null || sortBy.isEmpty()) {
@@ -693,5 +581,4 @@ public class EmailService {
             default -> new SortByDateStrategy();
         };
     }
-
 }
\ No newline at end of file
@@ -15,7 +15,8 @@ public class EventService {
         return eventSink.asFlux();
     }
     //the publisher that subscribers can publish event to
-    public void publishEvent(SSE event) {
+    //synchronized: the sink rejects concurrent emissions, and the outbox workers publish from several threads
+    public synchronized void publishEvent(SSE event) {
         Sinks.EmitResult result = eventSink.tryEmitNext(event);
         System.out.println("EmitResult " + event);
         if(result.isFailure()) {
@@ -0,0 +1,207 @@
+package com.mail.backend.service;
+
+import com.mail.backend.dps.factory.CompiledFilters;
+import com.mail.backend.model.BulkResult;
+import com.mail.backend.model.Email;
+import com.mail.backend.model.EmailMetadata;
+import com.mail.backend.model.EmailSummary;
+import com.mail.backend.model.Filter;
+import com.mail.backend.model.FilterJob;
+import com.mail.backend.repository.EmailRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Applies filters to mail already in the mailbox, as a background job.
+// The messages are split into batches that run in parallel on a small pool. A batch reads and matches its
+// messages, then applies what matched through the bulk operations - one rename or header rewrite per message
+// and one index update per batch - and adds its counts to the job. Cancelling stops the batches not yet started.
+@Slf4j
+@Service
+public class FilterJobService {
+
+    private static final int BATCH_SIZE = 32;
+    // Where a whole-mailbox run doesn't look: mail the user sent or wrote, and mail they deleted
+    private static final Set<String> SKIPPED_FOLDERS = Set.of("sent", "drafts", "trash");
+    // Finished jobs are kept this long so their outcome can still be read
+    private static final long FINISHED_JOB_TTL_MINUTES = 60;
+
+    @Autowired
+    private EmailRepository emailRepository;
+    @Autowired
+    private FilterService filterService;
+    @Autowired
+    private BulkOperationService bulkOperationService;
+
+    @Value("${mail.filter-job-threads:4}")
+    private int jobThreads;
+    private ExecutorService jobPool;
+
+    private final Map<String, FilterJob> jobs = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void startPool() {
+        AtomicInteger threadCount = new AtomicInteger();
+        jobPool = Executors.newFixedThreadPool(jobThreads, runnable -> {
+            Thread thread = new Thread(runnable, "filter-job-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    void stopPool() {
+        jobPool.shutdownNow();
+    }
+
+    // Starts a job over a folder (or the whole mailbox when folder is null) with one filter (or all when filterId is null).
+    // Synchronized so that two requests of one user can't both pass the check for a running job.
+    public synchronized FilterJob start(String username, String filterId, String folder, boolean dryRun) throws IOException {
+        for (FilterJob job : jobs.values()) {
+            if (job.getUsername().equals(username) && job.isRunning()) {
+                throw new IllegalArgumentException("A filter job is already running: " + job.getId());
+            }
+        }
+        if (folder != null && !emailRepository.folderExists(username, folder)) {
+            throw new IllegalArgumentException("Folder does not exist: " + folder);
+        }
+        CompiledFilters filters = filterId == null
+                ? filterService.compiledFilters(username)
+                : CompiledFilters.compile(List.of(filterService.getFilter(username, filterId)));
+
+        List<EmailMetadata> entries = folder != null
+                ? emailRepository.getIndex(username).inFolder(folder)
+                : emailRepository.getIndex(username).find(entry -> !SKIPPED_FOLDERS.contains(entry.getFolder()));
+
+        FilterJob job = new FilterJob(username, filterId, folder, dryRun);
+        job.setTotal(entries.size());
+        jobs.put(job.getId(), job);
+        evictFinished();
+
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int from = 0; from < entries.size(); from += BATCH_SIZE) {
+            List<EmailMetadata> batch = entries.subList(from, Math.min(from + BATCH_SIZE, entries.size()));
+            batches.add(CompletableFuture.runAsync(() -> runBatch(job, filters, batch), jobPool));
+        }
+        CompletableFuture.allOf(batches.toArray(new CompletableFuture[0])).whenComplete((done, error) -> {
+            if (error != null) {
+                job.setStatus("failed");
+                log.error("Filter job {} for {} failed: {}", job.getId(), username, error.getMessage());
+            } else if (job.isRunning()) {
+                job.setStatus("completed");
+            }
+            job.setFinishedAt(LocalDateTime.now());
+            log.info("Filter job {} for {} {}: {} scanned, {} matched, {} applied, {} failed", job.getId(), username,
+                    job.getStatus(), job.getScanned(), job.getMatched(), job.getApplied(), job.getFailed());
+        });
+
+        log.info("Started filter job {} for {} over {} emails (dry run: {})", job.getId(), username, entries.size(), dryRun);
+        return job;
+    }
+
+    public FilterJob getJob(String username, String jobId) {
+        FilterJob job = jobs.get(jobId);
+        if (job == null || !job.getUsername().equals(username)) {
+            throw new IllegalArgumentException("Filter job not found: " + jobId);
+        }
+        return job;
+    }
+
+    // Batches already running finish; the others are skipped
+    public FilterJob cancel(String username, String jobId) {
+        FilterJob job = getJob(username, jobId);
+        if (job.isRunning()) {
+            job.setStatus("cancelled");
+            log.info("Filter job {} for {} cancelled", jobId, username);
+        }
+        return job;
+    }
+
+    private void runBatch(FilterJob job, CompiledFilters filters, List<EmailMetadata> batch) {
+        if (!job.isRunning()) {
+            return;
+        }
+        String username = job.getUsername();
+
+        // What each matching message should become, grouped so that each change is one bulk call
+        Map<String, Integer> matches = new LinkedHashMap<>();
+        Map<String, List<String>> moves = new LinkedHashMap<>();
+        List<String> deletes = new ArrayList<>();
+        List<String> stars = new ArrayList<>();
+        List<String> reads = new ArrayList<>();
+        int failed = 0;
+
+        for (EmailMetadata entry : batch) {
+            Filter filter;
+            try {
+                // Bodies are only read when a rule looks at them
+                Email email = filters.readsBody()
+                        ? emailRepository.getEmail(username, entry.getFolder(), entry.getMessageId())
+                        : headerOnly(emailRepository.getSummary(username, entry.getFolder(), entry.getMessageId()));
+                filter = filters.firstMatch(email);
+            } catch (Exception e) {
+                log.warn("Filter job {} could not read email {}: {}", job.getId(), entry.getMessageId(), e.getMessage());
+                failed++;
+                continue;
+            }
+            if (filter == null) {
+                continue;
+            }
+            matches.merge(filter.getId(), 1, Integer::sum);
+
+            switch (filter.getAction().toLowerCase()) {
+                case "move" -> {
+                    if (!filter.getNewFolder().equals(entry.getFolder())) {
+                        moves.computeIfAbsent(filter.getNewFolder(), folder -> new ArrayList<>()).add(entry.getMessageId());
+                    }
+                }
+                case "delete" -> deletes.add(entry.getMessageId());
+                case "star" -> stars.add(entry.getMessageId());
+                case "markread" -> reads.add(entry.getMessageId());
+                // Forwarding is left to new deliveries: resending old mail is never what a cleanup wants
+                default -> { }
+            }
+        }
+
+        int applied = 0;
+        if (!job.isDryRun()) {
+            List<BulkResult> results = new ArrayList<>();
+            moves.forEach((folder, ids) -> results.add(bulkOperationService.move(username, ids, folder)));
+            if (!deletes.isEmpty()) results.add(bulkOperationService.moveToTrash(username, deletes));
+            if (!stars.isEmpty()) results.add(bulkOperationService.setFlags(username, stars, null, true));
+            if (!reads.isEmpty()) results.add(bulkOperationService.setFlags(username, reads, true, null));
+            for (BulkResult result : results) {
+                applied += result.getSucceeded();
+                failed += result.getFailed();
+            }
+        }
+        job.progress(batch.size(), matches, applied, failed);
+    }
+
+    // What the filters see of a message when none of them reads the body
+    private static Email headerOnly(EmailSummary summary) {
+        Email email = new Email();
+        email.setMessageId(summary.getMessageId());
+        email.setFrom(summary.getFrom());
+        email.setTo(summary.getTo());
+        email.setSubject(summary.getSubject());
+        return email;
+    }
+
+    private void evictFinished() {
+        LocalDateTime cutoff = LocalDateTime.now().minusMinutes(FINISHED_JOB_TTL_MINUTES);
+        jobs.values().removeIf(job -> job.getFinishedAt() != null && job.getFinishedAt().isBefore(cutoff));
+    }
+}
@@ -1,7 +1,6 @@
 package com.mail.backend.service;
 
-import com.mail.backend.dps.command.*;
-import com.mail.backend.dps.factory.FilterFactory;
+import com.mail.backend.dps.factory.CompiledFilters;
 import com.mail.backend.model.Email;
 import com.mail.backend.model.Filter;
 import com.mail.backend.repository.FilterRepository;
@@ -10,17 +9,18 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.function.Function;
-import static com.mail.backend.service.HtmlHelper.extractPlainText;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @Slf4j
 public class FilterService {
     @Autowired
     private FilterRepository filterRepository;
+    private final Map<String, CompiledFilters> compiled = new ConcurrentHashMap<>();
 
     public Filter addFilter(String username,Filter filter) throws IOException {
         if (filter.getProperty() == null || filter.getProperty().trim().isEmpty()) {
@@ -39,6 +39,7 @@ public class FilterService {
             filter.setId("filter-" + UUID.randomUUID().toString().substring(0, 8));
         }
         filterRepository.saveFilter(username,filter);
+        compiled.remove(username);
         log.info("Filter {} added for user {}", filter.getId(), username);
         return filter;
 
@@ -47,6 +48,13 @@ public class FilterService {
         return filterRepository.filterList(username);
     }
 
+    public Filter getFilter(String username, String filterId) throws IOException {
+        if (!filterRepository.filterExists(username, filterId)) {
+            throw new IllegalArgumentException("filter does not exist");
+        }
+        return filterRepository.getFilter(username, filterId);
+    }
+
     public Filter updateFilter(String username,String filterId,Filter updatedFilter) throws IOException {
         if(!filterRepository.filterExists(username,filterId)){
             throw new IllegalArgumentException("filter does not exist");
@@ -60,6 +68,7 @@ public class FilterService {
         filter.setNewFolder(updatedFilter.getNewFolder());
         filter.setForwardedTo(updatedFilter.getForwardedTo());
         filterRepository.saveFilter(username,filter);
+        compiled.remove(username);
         log.info("Filter {} updated for user {}", filter.getId(), username);
         return filter;
     }
@@ -69,50 +78,27 @@ public class FilterService {
             throw new IOException("Filter not found: " + filterId);
         }
         filterRepository.deleteFilter(username, filterId);
+        compiled.remove(username);
         log.info("Filter {} deleted for user {}", filterId, username);
     }
 
-    private static final Map<String, Function<Email, Object>> PROPERTY_EXTRACTORS = Map.of(
-            "subject", Email::getSubject,
-            "body", Email::getBody,
-            "from", Email::getFrom,
-            "to", Email::getTo,
-            "receiver", Email::getTo,
-            "composite", email -> email
-    );
-    private static final Map<String, Action> ACTIONS = Map.of(
-            "move", new Move(),
-            "star", new Star(),
-            "delete", new Delete(),
-            "markread", new MarkRead(),
-            "forward", new Forward()
-    );
-
-    public Email applyFilters(String username, Email email) throws Exception {
-        List<Filter> filterList = this.listFilters(username);
-        for (Filter filter : filterList) {
-            Function<Email, Object> extractor =
-                    PROPERTY_EXTRACTORS.get(filter.getProperty().toLowerCase());
-            if (extractor == null) continue;
-            Object rawValue = extractor.apply(email);
-
-            if ("body".equalsIgnoreCase(filter.getProperty()) && rawValue instanceof String) {
-                rawValue = extractPlainText((String) rawValue);
-            }
-
-            FilterFactory factory = new FilterFactory(filter.getMatcher());
-
-            if (factory.filter(rawValue, filter.getValue())) {
-                Action action = ACTIONS.get(filter.getAction().toLowerCase());
-
-                if (action != null) {
-                    return action.execute(email, filter);
+    // The user's filters, compiled - built from their filter files on first use and dropped whenever they change.
+    // A change made while they are being compiled waits for the compile and then drops its result.
+    public CompiledFilters compiledFilters(String username) throws IOException {
+        try {
+            return compiled.computeIfAbsent(username, user -> {
+                try {
+                    return CompiledFilters.compile(listFilters(user));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-            }
-
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
         }
-        return email;
     }
 
-
+    public Email applyFilters(String username, Email email) throws Exception {
+        return compiledFilters(username).apply(email);
+    }
 }
@@ -0,0 +1,46 @@
+package com.mail.backend.service;
+
+import com.mail.backend.repository.EmailRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+// Folder counters are kept up to date with every change; this job checks each mailbox index against
+// the files on disk again and recounts, repairing anything a crash or an outside edit left behind
+@Slf4j
+@Component
+public class FolderCountRepairScheduler {
+
+    @Autowired
+    private EmailRepository emailRepository;
+
+    @Scheduled(cron = "${mail.folder-count-repair-cron:0 30 3 * * ?}") // 3:30 AM every day
+    public void repairAllUsers() {
+        Path rootPath = Paths.get(emailRepository.getMsgRoot());
+        if (!Files.exists(rootPath)) {
+            return;
+        }
+
+        log.info("Starting folder count repair job");
+        try (Stream<Path> userPaths = Files.list(rootPath)) {
+            userPaths.filter(Files::isDirectory)
+                    .forEach(userPath -> {
+                        String username = userPath.getFileName().toString();
+                        int drifted = emailRepository.repairIndex(username);
+                        if (drifted > 0) {
+                            log.warn("Repaired folder counters of {} folders for user: {}", drifted, username);
+                        }
+                    });
+            log.info("Folder count repair job completed");
+        } catch (IOException e) {
+            log.error("Failed to perform folder count repair: {}", e.getMessage(), e);
+        }
+    }
+}
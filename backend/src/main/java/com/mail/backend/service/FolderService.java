@@ -1,9 +1,9 @@
 package com.mail.backend.service;
 
 import com.mail.backend.dps.factory.CustomFolderFactory;
-import com.mail.backend.model.Email;
 import com.mail.backend.model.Folder;
 import com.mail.backend.repository.EmailRepository;
+import com.mail.backend.repository.MailboxIndex;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -49,8 +49,10 @@ public class FolderService {
     }
 
     // Get All Folders (System & Custom)
+    // Counts come from the mailbox index's folder counters, so no email is read
     public List<Folder> getAllFolders(String username) throws IOException {
         List<Folder> folders = new ArrayList<>();
+        MailboxIndex index = emailRepository.getIndex(username);
 
         // Add system folders
         for (String folderName : SYSTEM_FOLDERS) {
@@ -59,18 +61,7 @@ public class FolderService {
             folder.setType("SYSTEM");
             folder.setEditable(false);
 
-            // Count emails in system folder
-            try {
-                List<Email> emails = emailRepository.listEmailsInFolder(username, folderName);
-                folder.setEmailCount(emails.size());
-                folder.setUnreadCount((int) emails.stream()
-                        .filter(email -> !email.isRead())
-                        .count());
-            } catch (IOException e) {
-                log.warn("Could not count emails in folder: {}", folderName);
-                folder.setEmailCount(0);
-                folder.setUnreadCount(0);
-            }
+            setCounts(folder, index.folderCounts(folderName));
 
             folders.add(folder);
         }
@@ -93,18 +84,7 @@ public class FolderService {
                             folder.setType("CUSTOM");
                             folder.setEditable(true);
 
-                            // Count emails in custom folder
-                            try {
-                                List<Email> emails = emailRepository.listEmailsInFolder(username, folderName);
-                                folder.setEmailCount(emails.size());
-                                folder.setUnreadCount((int) emails.stream()
-                                        .filter(email -> !email.isRead())
-                                        .count());
-                            } catch (IOException e) {
-                                log.warn("Could not count emails in custom folder: {}", folderName);
-                                folder.setEmailCount(0);
-                                folder.setUnreadCount(0);
-                            }
+                            setCounts(folder, index.folderCounts(folderName));
 
                             folders.add(folder);
                         });
@@ -114,4 +94,9 @@ public class FolderService {
         log.info("Retrieved {} folders for user: {}", folders.size(), username);
         return folders;
     }
+
+    private static void setCounts(Folder folder, MailboxIndex.FolderCounts counts) {
+        folder.setEmailCount(counts.total());
+        folder.setUnreadCount(counts.unread());
+    }
 }
\ No newline at end of file
@@ -5,10 +5,20 @@ import org.jsoup.nodes.Document;
 import org.jsoup.safety.Safelist;
 
 public class HtmlHelper {
+    public static final int SNIPPET_LENGTH = 160;
+
     public static String extractPlainText(String htmlContent) {
         Document doc = Jsoup.parse(htmlContent);
         return doc.text();
     }
+    // Short single-line plain-text preview of an HTML body, for list views
+    public static String snippet(String htmlContent) {
+        if (htmlContent == null || htmlContent.isEmpty()) {
+            return "";
+        }
+        String text = extractPlainText(htmlContent).replaceAll("\\s+", " ").trim();
+        return text.length() <= SNIPPET_LENGTH ? text : text.substring(0, SNIPPET_LENGTH);
+    }
     public static String sanitizeHtml(String htmlContent) {
         Safelist emailSafelist = Safelist.relaxed()
                 .addAttributes("table", "width", "cellspacing", "cellpadding", "border", "align")
@@ -0,0 +1,220 @@
+package com.mail.backend.service;
+
+import com.mail.backend.model.Email;
+import com.mail.backend.model.SSE;
+import com.mail.backend.repository.OutboxRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Delivers queued emails in the background.
+// Sending only writes the email to the durable outbox; a pool of workers takes one recipient at a time off a
+// delay queue and delivers it. A failed delivery is retried with exponential backoff until mail.outbox.max-attempts,
+// an unknown recipient is given up on at once. On startup every recipient the outbox hasn't settled is queued again.
+// A delivered copy that a recipient's filter forwards is sent on through the outbox too, never from the delivering
+// thread. Each forwarded send carries the users it came from - the original sender, then every forwarder: a chain
+// stops after mail.forward.max-hops forwards, and is never forwarded back to one of those users, so two users
+// forwarding to each other don't loop.
+@Slf4j
+@Service
+public class OutboxService {
+
+    // Longest wait between two attempts of one recipient
+    private static final long MAX_BACKOFF_MS = 10 * 60 * 1000;
+
+    @Autowired
+    private OutboxRepository outboxRepository;
+    @Autowired
+    private DeliveryService deliveryService;
+    @Autowired
+    private EventService eventService;
+    // Forwards made by a recipient's filters are sent like any other email; lazy, as sending needs the outbox
+    @Lazy
+    @Autowired
+    private EmailService emailService;
+
+    @Value("${mail.delivery-threads:8}")
+    private int workerCount;
+    @Value("${mail.outbox.max-attempts:6}")
+    private int maxAttempts;
+    @Value("${mail.outbox.backoff-ms:2000}")
+    private long backoffMillis;
+    @Value("${mail.forward.max-hops:5}")
+    private int maxForwardHops;
+
+    private final DelayQueue<Job> queue = new DelayQueue<>();
+    private ExecutorService workers;
+
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong forwardsStopped = new AtomicLong();
+    private final AtomicLong totalLagMillis = new AtomicLong();
+    private volatile long lastLagMillis;
+
+    // One recipient of a queued email, due for its next attempt at dueAt (System.nanoTime)
+    private record Job(OutboxRepository.Entry entry, String recipient, int attempts, long dueAt) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((Job) other).dueAt);
+        }
+    }
+
+    @PostConstruct
+    void start() {
+        List<OutboxRepository.Queued> unsettled = outboxRepository.load();
+        for (OutboxRepository.Queued queued : unsettled) {
+            schedule(queued);
+        }
+        if (!queue.isEmpty()) {
+            log.info("Replaying {} undelivered recipients of {} emails from the outbox", queue.size(), unsettled.size());
+        }
+
+        AtomicInteger threadCount = new AtomicInteger();
+        workers = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, "outbox-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < workerCount; i++) {
+            workers.execute(this::work);
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        // Whatever is still queued stays in the outbox and is replayed on the next start
+        workers.shutdownNow();
+    }
+
+    // Queues an email for its recipients and returns once it is durable; delivery happens in the background
+    public void enqueue(String username, Email email, List<String> recipients, List<String> forwardPath) throws IOException {
+        schedule(outboxRepository.enqueue(username, email, recipients, forwardPath));
+    }
+
+    // Queue depth (recipients not yet delivered), age of the oldest queued email and delivery lag - logged for operators
+    private Map<String, Object> stats() {
+        LocalDateTime oldest = outboxRepository.oldestQueuedAt();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("depth", outboxRepository.pendingRecipients());
+        stats.put("oldestQueuedMs", oldest == null ? 0 : Duration.between(oldest, LocalDateTime.now()).toMillis());
+        stats.put("delivered", delivered.get());
+        stats.put("failed", failed.get());
+        stats.put("retries", retries.get());
+        stats.put("forwardsStopped", forwardsStopped.get());
+        stats.put("lastLagMs", lastLagMillis);
+        stats.put("avgLagMs", delivered.get() == 0 ? 0 : totalLagMillis.get() / delivered.get());
+        return stats;
+    }
+
+    @Scheduled(fixedDelayString = "${mail.outbox.stats-ms:60000}")
+    public void logStats() {
+        if (outboxRepository.pendingRecipients() > 0 || delivered.get() + failed.get() > 0) {
+            log.info("Outbox: {}", stats());
+        }
+    }
+
+    // Schedules from the copy of the recipients taken under the repository's lock: workers settle the live set meanwhile
+    private void schedule(OutboxRepository.Queued queued) {
+        long now = System.nanoTime();
+        for (String recipient : queued.recipients()) {
+            queue.add(new Job(queued.entry(), recipient, 0, now));
+        }
+    }
+
+    private void work() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                deliver(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            } catch (Exception e) {
+                log.error("Outbox worker failed: {}", e.getMessage());
+            }
+        }
+    }
+
+    private void deliver(Job job) {
+        OutboxRepository.Entry entry = job.entry();
+        DeliveryService.Delivery delivery = deliveryService.deliverTo(entry.getEmail(), job.recipient());
+
+        if (delivery.delivered()) {
+            outboxRepository.complete(entry.getMessageId(), job.recipient(), true);
+            long lag = Duration.between(entry.getQueuedAt(), LocalDateTime.now()).toMillis();
+            lastLagMillis = lag;
+            totalLagMillis.addAndGet(lag);
+            delivered.incrementAndGet();
+            eventService.publishEvent(new SSE("Received", List.of(delivery.username() + "@jaryn.com")));
+
+            if (delivery.forwardTo() != null && !delivery.forwardTo().isEmpty()) {
+                forward(entry, delivery);
+            }
+        } else if (delivery.unknownUser() || job.attempts() + 1 >= maxAttempts) {
+            outboxRepository.complete(entry.getMessageId(), job.recipient(), false);
+            failed.incrementAndGet();
+            log.error("Gave up delivering email {} to {} after {} attempts: {}",
+                    entry.getMessageId(), job.recipient(), job.attempts() + 1, delivery.error());
+        } else {
+            long backoff = Math.min(MAX_BACKOFF_MS, backoffMillis << job.attempts());
+            retries.incrementAndGet();
+            queue.add(new Job(entry, job.recipient(), job.attempts() + 1,
+                    System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoff)));
+            log.warn("Delivery of email {} to {} failed, retrying in {} ms: {}",
+                    entry.getMessageId(), job.recipient(), backoff, delivery.error());
+        }
+    }
+
+    // Sends a delivered copy on to where the recipient's filters forward it, unless that would loop or go too deep
+    private void forward(OutboxRepository.Entry entry, DeliveryService.Delivery delivery) {
+        String forwarder = delivery.username();
+        // An email a user sent has come from its sender only
+        List<String> cameFrom = entry.getForwardPath().isEmpty() ? List.of(entry.getUsername()) : entry.getForwardPath();
+        int hops = cameFrom.size() - 1;
+        if (hops >= maxForwardHops) {
+            forwardsStopped.incrementAndGet();
+            log.warn("Not forwarding email {} for {}: it was forwarded {} times already",
+                    entry.getMessageId(), forwarder, hops);
+            return;
+        }
+
+        List<String> forwardPath = new ArrayList<>(cameFrom);
+        forwardPath.add(forwarder);
+        Set<String> visited = new HashSet<>(forwardPath);
+        List<String> recipients = delivery.forwardTo().stream()
+                .filter(recipient -> !visited.contains(DeliveryService.usernameOf(recipient)))
+                .distinct()
+                .toList();
+        if (recipients.size() < delivery.forwardTo().size()) {
+            forwardsStopped.incrementAndGet();
+            log.warn("Not forwarding email {} for {} back to users it came from: {}",
+                    entry.getMessageId(), forwarder, forwardPath);
+        }
+        if (recipients.isEmpty()) {
+            return;
+        }
+
+        try {
+            emailService.forwardInChain(forwarder, delivery.copy(), recipients, forwardPath);
+        } catch (Exception e) {
+            log.error("Failed to forward email {} for {}: {}", entry.getMessageId(), forwarder, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.mail.backend.service;
+
+import com.mail.backend.dps.SearchFilter.IndexStatistics;
+import com.mail.backend.dps.SearchFilter.SearchFilter;
+import com.mail.backend.model.EmailMetadata;
+import com.mail.backend.model.MailItem;
+import com.mail.backend.repository.MailboxIndex;
+import com.mail.backend.repository.SearchIndex;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+// Picks how a search runs, from the statistics of the user's mailbox and full-text indexes.
+// Filters the flag bitmaps can answer are always intersected first, as whole bitmaps. The planner then
+// decides which text criteria are answered from posting lists (and which are instead checked per
+// message), and the order in which the remaining filters are evaluated.
+@Component
+public class SearchPlanner {
+
+    // Relative cost of taking one messageId from a posting list, and of checking one message's tokens,
+    // on the same scale as SearchFilter.cost()
+    private static final double POSTING_COST = 0.5;
+    private static final int TOKEN_CHECK_COST = 5;
+
+    // A text criterion answerable from the full-text index; a null field means any field
+    public static class TextCriterion {
+        private final String field;
+        private final String text;
+
+        public TextCriterion(String field, String text) {
+            this.field = field;
+            this.text = text;
+        }
+
+        public String describe() {
+            return (field == null ? "any field" : field) + " ~ '" + text + "'";
+        }
+    }
+
+    public static class Plan {
+        private final MailboxIndex index;
+        private final SearchIndex searchIndex;
+        // Messages passing every bitmap-answerable filter, and what each of those filters contributed
+        private BitSet base;
+        private final List<Map<String, Object>> bitmapSteps = new ArrayList<>();
+        // Criteria answered from posting lists, smallest first
+        private final List<TextCriterion> indexed = new ArrayList<>();
+        private final List<Integer> indexedEstimates = new ArrayList<>();
+        // Checked on each candidate, in this order
+        private final List<SearchFilter> residual = new ArrayList<>();
+        private double estimatedCost;
+
+        private Plan(MailboxIndex index, SearchIndex searchIndex) {
+            this.index = index;
+            this.searchIndex = searchIndex;
+        }
+
+        public List<EmailMetadata> execute() {
+            List<EmailMetadata> results = index.entriesOf(candidates());
+            if (!residual.isEmpty()) {
+                results.removeIf(entry -> !passes(entry));
+            }
+            return results;
+        }
+
+        // One page of the results in the given order, starting after `after` (from the start when null).
+        // The residual filters only run on candidates up to the end of the page.
+        public List<EmailMetadata> page(Comparator<MailItem> order, EmailMetadata after, int limit) {
+            return index.page(order, candidates(), residual.isEmpty() ? null : this::passes, after, 0, limit);
+        }
+
+        private BitSet candidates() {
+            BitSet candidates = (BitSet) base.clone();
+            for (TextCriterion criterion : indexed) {
+                if (candidates.isEmpty()) {
+                    break;
+                }
+                candidates.and(index.bitsOf(searchIndex.search(criterion.field, criterion.text)));
+            }
+            return candidates;
+        }
+
+        private boolean passes(MailItem item) {
+            for (SearchFilter filter : residual) {
+                if (!filter.matches(item)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // The chosen plan with its estimates, for the search endpoint's explain option
+        public Map<String, Object> explain() {
+            List<Map<String, Object>> steps = new ArrayList<>(bitmapSteps);
+            double rows = base.cardinality();
+            if (indexed.isEmpty() && bitmapSteps.isEmpty()) {
+                steps.add(step("scan", "mailbox index", rows));
+            }
+            for (int i = 0; i < indexed.size(); i++) {
+                int estimate = indexedEstimates.get(i);
+                rows = rows * estimate / Math.max(1, index.total());
+                steps.add(step("postings", indexed.get(i).describe() + " (" + estimate + " postings)", rows));
+            }
+            for (SearchFilter filter : residual) {
+                rows *= filter.selectivity(index);
+                steps.add(step("filter", filter.describe(), rows));
+            }
+
+            Map<String, Object> plan = new LinkedHashMap<>();
+            plan.put("access", indexed.isEmpty() && bitmapSteps.isEmpty() ? "scan" : "index-intersection");
+            plan.put("mailboxSize", index.total());
+            plan.put("estimatedRows", Math.round(rows));
+            plan.put("estimatedCost", Math.round(estimatedCost));
+            plan.put("steps", steps);
+            return plan;
+        }
+
+        private static Map<String, Object> step(String operation, String detail, double rows) {
+            Map<String, Object> step = new LinkedHashMap<>();
+            step.put("operation", operation);
+            step.put("detail", detail);
+            step.put("estimatedRows", Math.round(rows));
+            return step;
+        }
+    }
+
+    public Plan plan(MailboxIndex index, SearchIndex searchIndex, List<TextCriterion> text, List<SearchFilter> filters) {
+        int total = index.total();
+
+        // Flag, priority and folder filters are answered exactly, by intersecting their bitmaps
+        BitSet base = index.allBits();
+        List<Map<String, Object>> bitmapSteps = new ArrayList<>();
+        List<SearchFilter> scanFilters = new ArrayList<>();
+        for (SearchFilter filter : filters) {
+            BitSet bits = filter.bitmap(index);
+            if (bits == null) {
+                scanFilters.add(filter);
+            } else {
+                base.and(bits);
+                bitmapSteps.add(Plan.step("bitmap", filter.describe(), base.cardinality()));
+            }
+        }
+
+        List<TextCriterion> criteria = new ArrayList<>(text);
+        Map<TextCriterion, Integer> estimates = new HashMap<>();
+        for (TextCriterion criterion : criteria) {
+            estimates.put(criterion, searchIndex.estimate(criterion.field, criterion.text));
+        }
+        criteria.sort(Comparator.comparingInt(estimates::get));
+
+        // Try answering the k most selective text criteria from posting lists (k = 0 checks them all per message)
+        // and checking everything else per message; keep the cheapest
+        Plan best = null;
+        for (int k = 0; k <= criteria.size(); k++) {
+            Plan plan = new Plan(index, searchIndex);
+            plan.base = base;
+            plan.bitmapSteps.addAll(bitmapSteps);
+            double rows = base.cardinality();
+            double cost = 0;
+            for (int i = 0; i < k; i++) {
+                TextCriterion criterion = criteria.get(i);
+                int estimate = estimates.get(criterion);
+                plan.indexed.add(criterion);
+                plan.indexedEstimates.add(estimate);
+                cost += estimate * POSTING_COST;
+                rows = rows * estimate / Math.max(1, total);
+            }
+
+            List<SearchFilter> residual = new ArrayList<>(scanFilters);
+            for (int i = k; i < criteria.size(); i++) {
+                TextCriterion criterion = criteria.get(i);
+                residual.add(new TokenFilter(searchIndex, criterion, estimates.get(criterion)));
+            }
+            // Cheap, selective filters first: ascending cost / (1 - selectivity)
+            residual.sort(Comparator.comparingDouble(filter -> rank(filter, index)));
+            plan.residual.addAll(residual);
+
+            for (SearchFilter filter : residual) {
+                cost += rows * filter.cost();
+                rows *= filter.selectivity(index);
+            }
+            plan.estimatedCost = cost;
+
+            if (best == null || cost < best.estimatedCost) {
+                best = plan;
+            }
+        }
+        return best;
+    }
+
+    private static double rank(SearchFilter filter, IndexStatistics stats) {
+        double pass = filter.selectivity(stats);
+        return pass >= 1.0 ? Double.MAX_VALUE : filter.cost() / (1.0 - pass);
+    }
+
+    // A text criterion checked against one message's indexed tokens, for plans that don't use its postings
+    private static class TokenFilter implements SearchFilter {
+        private final SearchIndex searchIndex;
+        private final TextCriterion criterion;
+        private final int estimate;
+
+        private TokenFilter(SearchIndex searchIndex, TextCriterion criterion, int estimate) {
+            this.searchIndex = searchIndex;
+            this.criterion = criterion;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public boolean matches(MailItem item) {
+            return searchIndex.matches(item.getMessageId(), criterion.field, criterion.text);
+        }
+
+        @Override
+        public int cost() {
+            return TOKEN_CHECK_COST;
+        }
+
+        @Override
+        public double selectivity(IndexStatistics stats) {
+            return Math.min(1.0, SearchFilter.fraction(estimate, stats));
+        }
+
+        @Override
+        public String describe() {
+            return criterion.describe();
+        }
+    }
+}
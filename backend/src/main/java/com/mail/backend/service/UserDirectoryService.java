@@ -0,0 +1,75 @@
+package com.mail.backend.service;
+
+import com.mail.backend.repository.UserRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Answers "which of these users exist" for recipient and contact lists.
+// Every username is held in memory, loaded with one query and reloaded every mail.user-directory.refresh-ms;
+// registrations add themselves right away. Names the set doesn't know (a user registered through another
+// instance since the last reload) are checked against the database together, in one query per list.
+@Slf4j
+@Service
+public class UserDirectoryService {
+
+    @Autowired
+    private UserRepository userRepository;
+
+    private volatile Set<String> usernames;
+
+    // The given usernames that belong to a user
+    public Set<String> existing(Collection<String> candidates) {
+        Set<String> known = directory();
+        Set<String> existing = new HashSet<>();
+        List<String> unknown = new ArrayList<>();
+        for (String candidate : candidates) {
+            if (candidate == null) continue;
+            if (known.contains(candidate)) {
+                existing.add(candidate);
+            } else {
+                unknown.add(candidate);
+            }
+        }
+
+        if (!unknown.isEmpty()) {
+            List<String> found = userRepository.findExistingUsernames(unknown);
+            known.addAll(found);
+            existing.addAll(found);
+        }
+        return existing;
+    }
+
+    public boolean exists(String username) {
+        return !existing(List.of(username)).isEmpty();
+    }
+
+    // Called once a user is registered, so they can be written to straight away
+    public void added(String username) {
+        directory().add(username);
+    }
+
+    @Scheduled(fixedDelayString = "${mail.user-directory.refresh-ms:300000}",
+            initialDelayString = "${mail.user-directory.refresh-ms:300000}")
+    public void refresh() {
+        Set<String> loaded = ConcurrentHashMap.newKeySet();
+        loaded.addAll(userRepository.findAllUsernames());
+        usernames = loaded;
+        log.debug("Loaded {} usernames into the user directory", loaded.size());
+    }
+
+    private Set<String> directory() {
+        if (usernames == null) {
+            synchronized (this) {
+                if (usernames == null) {
+                    refresh();
+                }
+            }
+        }
+        return usernames;
+    }
+}
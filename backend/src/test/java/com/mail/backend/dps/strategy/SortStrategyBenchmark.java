@@ -0,0 +1,110 @@
+package com.mail.backend.dps.strategy;
+
+import com.mail.backend.model.EmailMetadata;
+import com.mail.backend.model.MailItem;
+import com.mail.backend.repository.MailboxIndex;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+// Serving one page of a mailbox sorted by priority or date: the previous full sorts against the pages the
+// mailbox index serves - a walk of its ordered tree, or top-k selection when few emails qualify (starred ones here).
+// Not part of the test run: after mvn test-compile, run main() from the IDE, or org.openjdk.jmh.Main on the test classpath.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SortStrategyBenchmark {
+
+    private static final int LIMIT = 20;
+
+    @Param({"1000", "10000", "100000"})
+    private int size;
+
+    @Param({"1", "50"})
+    private int page;
+
+    private List<EmailMetadata> emails;
+    private MailboxIndex index;
+    private BitSet starred;
+    private final SortStrategy byPriority = new SortByPriorityStrategy();
+    private final SortStrategy byDate = new SortByDateStrategy();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        LocalDateTime now = LocalDateTime.of(2025, 1, 1, 0, 0);
+        emails = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            EmailMetadata metadata = new EmailMetadata();
+            metadata.setMessageId(UUID.nameUUIDFromBytes(Integer.toString(i).getBytes()).toString());
+            metadata.setFolder("inbox");
+            metadata.setPriority(1 + random.nextInt(4));
+            metadata.setTimestamp(now.minusMinutes(random.nextInt(size * 10)));
+            // About 1 in 32 starred, sparse enough for the index to select the page rather than walk to it
+            metadata.setStarred(random.nextInt(32) == 0);
+            emails.add(metadata);
+        }
+        index = new MailboxIndex();
+        emails.forEach(index::put);
+        starred = index.starredBits();
+    }
+
+    // The previous priority sort: every email into a PriorityQueue, drained in full.
+    // Its per-email indexOf/println loop is left out, it would only make the baseline slower.
+    @Benchmark
+    public List<EmailMetadata> priorityQueueDrain() {
+        Comparator<MailItem> comparator = Comparator.comparing(MailItem::getPriority).reversed()
+                .thenComparing(MailItem::getTimestamp).reversed();
+        PriorityQueue<EmailMetadata> pq = new PriorityQueue<>(comparator);
+        pq.addAll(emails);
+        List<EmailMetadata> sorted = new ArrayList<>();
+        while (!pq.isEmpty()) {
+            sorted.add(pq.poll());
+        }
+        return pageOf(sorted);
+    }
+
+    @Benchmark
+    public List<EmailMetadata> priorityIndexPage() {
+        return index.folderPage(byPriority.comparator(), "inbox", null, (page - 1) * LIMIT, LIMIT);
+    }
+
+    // The previous date sort: the whole mailbox through a sorted stream
+    @Benchmark
+    public List<EmailMetadata> dateFullSort() {
+        List<EmailMetadata> sorted = emails.stream()
+                .sorted(Comparator.comparing(MailItem::getTimestamp).reversed())
+                .collect(Collectors.toList());
+        return pageOf(sorted);
+    }
+
+    @Benchmark
+    public List<EmailMetadata> dateIndexPage() {
+        return index.folderPage(byDate.comparator(), "inbox", null, (page - 1) * LIMIT, LIMIT);
+    }
+
+    @Benchmark
+    public List<EmailMetadata> starredIndexPage() {
+        return index.page(byDate.comparator(), starred, null, null, (page - 1) * LIMIT, LIMIT);
+    }
+
+    private List<EmailMetadata> pageOf(List<EmailMetadata> sorted) {
+        int offset = (page - 1) * LIMIT;
+        return sorted.subList(offset, offset + LIMIT);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SortStrategyBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}